@@ -0,0 +1,274 @@
+package bguspl.set;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The card images of the Swing user interface, scaled to the cell size. The images are decoded in parallel on a
+ * background pool, and the empty card image stands in for each card until it is ready. If an atlas path is configured,
+ * the scaled images of all the cards are packed into a single raw ARGB atlas file once, and later startups map that
+ * file into memory instead of decoding the PNG files.
+ */
+class CardImages {
+
+    /**
+     * The header of the atlas file: a magic number, the cell width, the cell height and the number of cards.
+     */
+    private static final int ATLAS_MAGIC = 0x53455441; // "SETA"
+    private static final int ATLAS_HEADER_BYTES = 4 * Integer.BYTES;
+
+    private final Logger logger;
+    private final Config config;
+
+    /**
+     * The empty card image (loaded before any other).
+     */
+    private final BufferedImage emptyCard;
+
+    /**
+     * The image of each card (null until ready).
+     */
+    private final AtomicReferenceArray<BufferedImage> cards;
+
+    /**
+     * The number of cards not ready yet.
+     */
+    private final AtomicInteger pending;
+
+    /**
+     * Called with each card when its image is ready (on a pool thread).
+     */
+    private final IntConsumer onLoaded;
+
+    /**
+     * The path of the atlas file, or null if not using an atlas.
+     */
+    private final Path atlasPath;
+
+    /**
+     * True iff the images are copied from the atlas file (so it needs no saving).
+     */
+    private boolean fromAtlas;
+
+    /**
+     * True iff some card image failed to load (so the atlas is not saved).
+     */
+    private volatile boolean failed;
+
+    /**
+     * The pool decoding the images.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * @param logger   - the logger.
+     * @param config   - the game configuration.
+     * @param onLoaded - called with each card when its image is ready (on a background thread).
+     */
+    CardImages(Logger logger, Config config, IntConsumer onLoaded) {
+        this.logger = logger;
+        this.config = config;
+        this.onLoaded = onLoaded;
+        this.emptyCard = prescale(decode("cards/empty_card.png"));
+        this.cards = new AtomicReferenceArray<>(config.deckSize);
+        this.pending = new AtomicInteger(config.deckSize);
+        this.atlasPath = config.cardAtlasPath.isEmpty() ? null : Paths.get(config.cardAtlasPath);
+        this.pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+            Thread thread = new Thread(task, "card-images");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (!loadAtlas()) {
+            for (int card = 0; card < config.deckSize; ++card) {
+                int id = card;
+                pool.execute(() -> {
+                    BufferedImage image = null;
+                    try {
+                        image = prescale(decode(fileName(id)));
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, "cannot load the image of card " + id, e);
+                    }
+                    loaded(id, image);
+                });
+            }
+        }
+        pool.shutdown(); // the threads exit once the submitted loads are done
+    }
+
+    /**
+     * @return - the empty card image.
+     */
+    Image empty() {
+        return emptyCard;
+    }
+
+    /**
+     * @param card - the card id.
+     * @return - the image of the card, or the empty card image if it is not ready yet.
+     */
+    Image image(int card) {
+        BufferedImage image = cards.get(card);
+        return image == null ? emptyCard : image;
+    }
+
+    private String fileName(int card) {
+        return "cards/" + UserInterfaceSwing.intInBaseToPaddedString(card, config.featureCount, config.featureSize) + ".png";
+    }
+
+    private BufferedImage decode(String filename) {
+        URL imageResource = getClass().getClassLoader().getResource(filename);
+        if (imageResource == null)
+            throw new RuntimeException(new FileNotFoundException(filename));
+        try {
+            return ImageIO.read(imageResource);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates a cell-sized image in the format of the screen, so painting it needs no conversion.
+     */
+    private BufferedImage compatibleImage() {
+        if (GraphicsEnvironment.isHeadless())
+            return new BufferedImage(config.cellWidth, config.cellHeight, BufferedImage.TYPE_INT_ARGB);
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration()
+                .createCompatibleImage(config.cellWidth, config.cellHeight, Transparency.TRANSLUCENT);
+    }
+
+    /**
+     * Scales an image to the cell size once, so painting a cell is a plain copy.
+     */
+    private BufferedImage prescale(Image image) {
+        BufferedImage scaled = compatibleImage();
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, config.cellWidth, config.cellHeight, null);
+        g.dispose();
+        return scaled;
+    }
+
+    /**
+     * Publishes the image of a card, or keeps the empty card image in its place if it failed to load (null).
+     */
+    private void loaded(int card, BufferedImage image) {
+        if (image == null) failed = true;
+        else cards.set(card, image);
+        onLoaded.accept(card);
+        if (pending.decrementAndGet() == 0 && atlasPath != null && !fromAtlas && !failed) saveAtlas();
+    }
+
+    /**
+     * Maps the atlas file into memory and copies the images of the cards out of it in parallel.
+     *
+     * @return - true iff the atlas file exists and matches the configuration.
+     */
+    private boolean loadAtlas() {
+        if (atlasPath == null || !Files.isRegularFile(atlasPath)) return false;
+
+        int pixels = config.cellWidth * config.cellHeight;
+        try (FileChannel channel = FileChannel.open(atlasPath, StandardOpenOption.READ)) {
+            if (channel.size() != atlasBytes() || channel.size() > Integer.MAX_VALUE) {
+                logger.severe("warning: card atlas " + atlasPath + " does not match the configuration. Rebuilding it.");
+                return false;
+            }
+            MappedByteBuffer atlas = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            atlas.order(ByteOrder.LITTLE_ENDIAN);
+            if (atlas.getInt(0) != ATLAS_MAGIC || atlas.getInt(4) != config.cellWidth
+                    || atlas.getInt(8) != config.cellHeight || atlas.getInt(12) != config.deckSize) {
+                logger.severe("warning: card atlas " + atlasPath + " does not match the configuration. Rebuilding it.");
+                return false;
+            }
+
+            // the mapping stays valid after the channel is closed
+            fromAtlas = true;
+            for (int card = 0; card < config.deckSize; ++card) {
+                int id = card;
+                pool.execute(() -> {
+                    BufferedImage image = null;
+                    try {
+                        // the size check above keeps every offset within an int
+                        int offset = (int) (ATLAS_HEADER_BYTES + (long) id * pixels * Integer.BYTES);
+                        int[] argb = new int[pixels];
+                        atlas.duplicate().position(offset).slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer()
+                                .get(argb, 0, pixels);
+                        image = compatibleImage();
+                        image.setRGB(0, 0, config.cellWidth, config.cellHeight, argb, 0, config.cellWidth);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, "cannot load the image of card " + id + " from the atlas", e);
+                    }
+                    loaded(id, image);
+                });
+            }
+            return true;
+        } catch (IOException e) {
+            logger.severe("warning: cannot read card atlas " + atlasPath + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * @return - the size in bytes of an atlas file of the configured cards.
+     */
+    private long atlasBytes() {
+        return ATLAS_HEADER_BYTES + (long) config.deckSize * config.cellWidth * config.cellHeight * Integer.BYTES;
+    }
+
+    /**
+     * Writes the images of all the cards into the atlas file (to a temporary file that replaces it when complete).
+     * The images are converted to ARGB pixels, whatever the format of the screen.
+     */
+    private void saveAtlas() {
+        if (atlasBytes() > Integer.MAX_VALUE) {
+            logger.severe("warning: card atlas of " + atlasBytes() + " bytes exceeds 2GB. Not writing it.");
+            return;
+        }
+        int pixels = config.cellWidth * config.cellHeight;
+        int[] argb = new int[pixels];
+        Path temporary = atlasPath.resolveSibling(atlasPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(ATLAS_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(ATLAS_MAGIC).putInt(config.cellWidth).putInt(config.cellHeight).putInt(config.deckSize).flip();
+            channel.write(header);
+            ByteBuffer cell = ByteBuffer.allocate(pixels * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int card = 0; card < config.deckSize; ++card) {
+                cell.clear();
+                cards.get(card).getRGB(0, 0, config.cellWidth, config.cellHeight, argb, 0, config.cellWidth);
+                cell.asIntBuffer().put(argb, 0, pixels);
+                while (cell.hasRemaining()) channel.write(cell);
+            }
+        } catch (IOException e) {
+            logger.severe("warning: cannot write card atlas " + atlasPath + ": " + e);
+            return;
+        }
+        try {
+            Files.move(temporary, atlasPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("card atlas written to " + atlasPath);
+        } catch (IOException e) {
+            logger.severe("warning: cannot write card atlas " + atlasPath + ": " + e);
+        }
+    }
+}
@@ -36,6 +36,16 @@ public class Config {
      */
     public final int deckSize;
 
+    /**
+     * The minimal number of cards for which sets are searched in parallel (0 or less to always search sequentially)
+     */
+    public final int parallelSearchThreshold;
+
+    /**
+     * The seed of the dealer's deck shuffling (-1 for a random seed)
+     */
+    public final long deckSeed;
+
     /**
      * The number of human players in the game.
      */
@@ -56,6 +66,19 @@ public class Config {
      */
     public final boolean hints;
 
+    /**
+     * Whether to run the dealer and the players on virtual threads (ThreadMode = virtual) or on platform threads
+     * (ThreadMode = platform)
+     * Note: falls back to platform threads on JVMs without virtual threads
+     */
+    public final boolean virtualThreads;
+
+    /**
+     * Whether the players run on dedicated threads (PlayerEngine = threads) or as state machines driven by a fixed
+     * pool of event loops, one per core (PlayerEngine = eventloop)
+     */
+    public final boolean eventLoopPlayers;
+
     /**
      * The number of milliseconds until the dealer reshuffles the deck (0 show timer since last action, -1 show nothing)
      */
@@ -132,6 +155,38 @@ public class Config {
      */
     public final int fontSize;
 
+    /**
+     * The maximal number of frames per second drawn by the user interface (0 to draw every change as it happens)
+     */
+    public final int uiFps;
+
+    /**
+     * The user interface backend (none, swing, terminal, or the name of a backend registered with ServiceLoader)
+     */
+    public final String userInterface;
+
+    /**
+     * The number of frames per second drawn by the terminal user interface
+     */
+    public final int terminalFps;
+
+    /**
+     * The path of the card images atlas file, written on the first startup and memory-mapped on later ones (empty to
+     * always decode the card image files)
+     */
+    public final String cardAtlasPath;
+
+    /**
+     * The number of key presses buffered for each player
+     */
+    public final int inputBufferSize;
+
+    /**
+     * What to do with a key press when the player's buffer is full (DROP_NEWEST, DROP_OLDEST or BLOCK)
+     * Note: BLOCK stalls the thread pressing the key, which is the Swing event thread for human players
+     */
+    public final IntRingBuffer.OverflowPolicy inputOverflowPolicy;
+
     /**
      * The scancodes of the keyboard input data for each player
      * Notes:
@@ -197,6 +252,8 @@ public class Config {
         featureSize = Integer.parseInt(properties.getProperty("FeatureSize", "3"));
         featureCount = Integer.parseInt(properties.getProperty("FeatureCount", "4"));
         deckSize = (int) Math.pow(featureSize, featureCount);
+        deckSeed = Long.parseLong(properties.getProperty("DeckSeed", "-1"));
+        parallelSearchThreshold = Integer.parseInt(properties.getProperty("ParallelSearchThreshold", "1024"));
 
         // gameplay settings
         humanPlayers = Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
@@ -204,6 +261,14 @@ public class Config {
         players = humanPlayers + computerPlayers;
 
         hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
+        String threadMode = properties.getProperty("ThreadMode", "platform").trim().toLowerCase();
+        if (!threadMode.equals("platform") && !threadMode.equals("virtual"))
+            logger.severe("warning: unknown thread mode " + threadMode + ". Using platform threads.");
+        virtualThreads = threadMode.equals("virtual");
+        String playerEngine = properties.getProperty("PlayerEngine", "threads").trim().toLowerCase();
+        if (!playerEngine.equals("threads") && !playerEngine.equals("eventloop"))
+            logger.severe("warning: unknown player engine " + playerEngine + ". Using threads.");
+        eventLoopPlayers = playerEngine.equals("eventloop");
         turnTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutSeconds", "60")) * 1000.0);
         turnTimeoutWarningMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutWarningSeconds", "60")) * 1000.0);
         pointFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PointFreezeSeconds", "1")) * 1000.0);
@@ -224,8 +289,27 @@ public class Config {
         playerCellWidth = Integer.parseInt(properties.getProperty("PlayerCellWidth", "300"));
         playerCellHeight = Integer.parseInt(properties.getProperty("PlayerCellHeight", "40"));
         fontSize = Integer.parseInt(properties.getProperty("FontSize", "40"));
+        uiFps = Integer.parseInt(properties.getProperty("UiFps", "60"));
+        userInterface = properties.getProperty("UserInterface", "swing").trim().toLowerCase();
+        terminalFps = Integer.parseInt(properties.getProperty("TerminalFps", "10"));
+        cardAtlasPath = properties.getProperty("CardAtlasPath", "").trim();
 
         // keyboard input data
+        int bufferSize = Integer.parseInt(properties.getProperty("InputBufferSize", "3"));
+        if (bufferSize < 1) {
+            logger.severe("warning: input buffer size " + bufferSize + " must be at least 1. Using 3.");
+            bufferSize = 3;
+        }
+        inputBufferSize = bufferSize;
+        String overflowPolicy = properties.getProperty("InputOverflowPolicy", "DROP_NEWEST").trim().toUpperCase();
+        IntRingBuffer.OverflowPolicy policy = IntRingBuffer.OverflowPolicy.DROP_NEWEST;
+        try {
+            policy = IntRingBuffer.OverflowPolicy.valueOf(overflowPolicy);
+        } catch (IllegalArgumentException ex) {
+            logger.severe("warning: unknown input overflow policy " + overflowPolicy + ". Using DROP_NEWEST.");
+        }
+        inputOverflowPolicy = policy;
+
         playerKeys = new int[players][rows * columns];
         for (int i = 0; i < players; i++) {
             String defaultCodes = "";
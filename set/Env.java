@@ -8,11 +8,15 @@ public class Env {
     public final Config config;
     public final UserInterface ui;
     public final Util util;
+    public final TimerWheel timers;
+    public final GameThreadFactory threads;
 
     public Env(Logger logger, Config config, UserInterface ui, Util util) {
         this.logger = logger;
         this.config = config;
         this.ui = ui;
         this.util = util;
+        this.timers = TimerWheel.shared();
+        this.threads = new GameThreadFactory(config, logger);
     }
 }
@@ -0,0 +1,70 @@
+package bguspl.set;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * Creates the threads of the game (dealer, players and computer players) as platform threads or as virtual threads,
+ * according to the ThreadMode configuration. Virtual threads are created through reflection, so the game still runs
+ * on JVMs without them, falling back to platform threads.
+ */
+public class GameThreadFactory implements ThreadFactory {
+
+    /**
+     * The Thread.Builder creating unstarted virtual threads, or null if using platform threads.
+     */
+    private final Object virtualBuilder;
+
+    /**
+     * Thread.Builder::unstarted, or null if using platform threads.
+     */
+    private final Method unstarted;
+
+    public GameThreadFactory(Config config, Logger logger) {
+        Object builder = null;
+        Method method = null;
+        if (config.virtualThreads) {
+            try {
+                builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                method = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                builder = null;
+                method = null;
+                logger.severe("warning: virtual threads are not available on this JVM (" + ex + "). Using platform threads.");
+            }
+        }
+        this.virtualBuilder = builder;
+        this.unstarted = method;
+    }
+
+    /**
+     * @return - true iff the threads are virtual threads.
+     */
+    public boolean isVirtual() {
+        return virtualBuilder != null;
+    }
+
+    @Override
+    public Thread newThread(Runnable task) {
+        if (virtualBuilder == null) return new Thread(task);
+        try {
+            return (Thread) unstarted.invoke(virtualBuilder, task);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("cannot create a virtual thread", ex);
+        }
+    }
+
+    /**
+     * Creates an unstarted thread.
+     *
+     * @param task - the task the thread runs.
+     * @param name - the name of the thread.
+     * @return - the thread.
+     */
+    public Thread newThread(Runnable task, String name) {
+        Thread thread = newThread(task);
+        thread.setName(name);
+        return thread;
+    }
+}
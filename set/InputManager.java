@@ -22,8 +22,9 @@ class InputManager extends KeyAdapter {
         this.players = players;
         this.logger = logger;
 
-        // initialize the keys
-        for (int player = 0; player < config.players; ++player)
+        // initialize the keys of the human players only: a computer player's own thread is the single producer of its
+        // input buffer, so the keyboard must not feed it as well
+        for (int player = 0; player < config.humanPlayers; ++player)
             for (int i = 0; i < config.playerKeys(player).length; i++) {
                 int keyCode = config.playerKeys(player)[i];
                 if (keyCode >= keyMap.length) reallocArrays(keyCode); // enlarge the array for higher key codes
@@ -0,0 +1,202 @@
+package bguspl.set;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded FIFO queue of primitive ints for a single producer thread and a single consumer thread. Offering and
+ * polling are lock-free and never allocate; only take (when empty) and offer with the BLOCK policy (when full) park.
+ *
+ * @inv 0 <= head - tail <= capacity
+ */
+public class IntRingBuffer {
+
+    /**
+     * What to do with a value offered to a full buffer.
+     */
+    public enum OverflowPolicy {
+        /** Drop the offered value. */
+        DROP_NEWEST,
+        /** Drop the oldest value in the buffer to make room for the offered one. */
+        DROP_OLDEST,
+        /** Wait until the consumer makes room. */
+        BLOCK
+    }
+
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            TAIL = MethodHandles.lookup().findVarHandle(IntRingBuffer.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The values (only the entries from tail to head, modulo the length, are valid).
+     */
+    private final int[] buffer;
+
+    /**
+     * The mask mapping a position to its entry (the length of the buffer is a power of 2).
+     */
+    private final int mask;
+
+    /**
+     * The maximal number of values in the buffer.
+     */
+    private final int capacity;
+
+    /**
+     * The policy for values offered to a full buffer.
+     */
+    private final OverflowPolicy policy;
+
+    /**
+     * The position of the next value to write (written by the producer only).
+     */
+    private volatile long head;
+
+    /**
+     * The position of the next value to read. Written by the consumer, and by the producer when dropping the oldest
+     * value, so it is only advanced by CAS.
+     */
+    private volatile long tail;
+
+    /**
+     * The number of values dropped because the buffer was full (written by the producer only).
+     */
+    private volatile long dropped;
+
+    /**
+     * The consumer thread while it waits for a value, and the producer thread while it waits for room (or null).
+     */
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+
+    /**
+     * @param capacity - the maximal number of values in the buffer.
+     * @param policy   - the policy for values offered to a full buffer.
+     */
+    public IntRingBuffer(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        int length = Integer.highestOneBit(capacity);
+        if (length < capacity) length <<= 1;
+        this.buffer = new int[length];
+        this.mask = length - 1;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Adds a value at the end of the buffer (called by the producer only).
+     *
+     * @param value - the value to add.
+     * @return - true iff the value was added (the oldest value may have been dropped instead, by DROP_OLDEST).
+     * @throws InterruptedException - if interrupted while waiting for room (BLOCK only).
+     */
+    public boolean offer(int value) throws InterruptedException {
+        long h = head;
+        while (h - tail >= capacity) {
+            if (policy == OverflowPolicy.DROP_NEWEST) {
+                dropped = dropped + 1;
+                return false;
+            }
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                long t = tail;
+                if (h - t >= capacity && TAIL.compareAndSet(this, t, t + 1))
+                    dropped = dropped + 1;
+                continue;
+            }
+            waitingProducer = Thread.currentThread();
+            if (h - tail >= capacity) LockSupport.park(this);
+            waitingProducer = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+
+        buffer[(int) h & mask] = value;
+        head = h + 1;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * Removes the first value in the buffer, waiting until there is one (called by the consumer only).
+     *
+     * @return - the first value.
+     * @throws InterruptedException - if interrupted while waiting.
+     */
+    public int take() throws InterruptedException {
+        while (true) {
+            long t = tail;
+            if (t != head) {
+                int value = buffer[(int) t & mask];
+                if (TAIL.compareAndSet(this, t, t + 1)) {
+                    Thread producer = waitingProducer;
+                    if (producer != null) LockSupport.unpark(producer);
+                    return value;
+                }
+                continue; // the producer dropped the value meanwhile
+            }
+
+            waitingConsumer = Thread.currentThread();
+            if (tail == head) LockSupport.park(this);
+            waitingConsumer = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Removes the first value in the buffer, without waiting (called by the consumer only).
+     *
+     * @param ifEmpty - the value to return if the buffer is empty.
+     * @return - the first value, or ifEmpty if there is none.
+     */
+    public int poll(int ifEmpty) {
+        while (true) {
+            long t = tail;
+            if (t == head) return ifEmpty;
+            int value = buffer[(int) t & mask];
+            if (TAIL.compareAndSet(this, t, t + 1)) {
+                Thread producer = waitingProducer;
+                if (producer != null) LockSupport.unpark(producer);
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Removes all the values in the buffer (called by the consumer only).
+     *
+     * @return - the number of values removed.
+     */
+    public int clear() {
+        while (true) {
+            long t = tail;
+            long h = head;
+            if (TAIL.compareAndSet(this, t, h)) {
+                Thread producer = waitingProducer;
+                if (producer != null) LockSupport.unpark(producer);
+                return (int) (h - t);
+            }
+        }
+    }
+
+    /**
+     * @return - the number of values in the buffer.
+     */
+    public int size() {
+        long t = tail;
+        return (int) Math.max(0, head - t);
+    }
+
+    /**
+     * @return - the number of values dropped so far because the buffer was full.
+     */
+    public long dropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,16 @@
+package bguspl.set;
+
+/**
+ * A consumer of the sets found by the primitive search methods of Util.
+ */
+@FunctionalInterface
+public interface SetSink {
+
+    /**
+     * Called for every set found.
+     *
+     * @param set - the sorted card ids of the set. The array is reused by the search, so copy it to keep it.
+     * @return - true to continue searching, false to stop.
+     */
+    boolean accept(int[] set);
+}
@@ -0,0 +1,254 @@
+package bguspl.set;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timer wheel that runs the timeouts of all the games in the JVM (freezes, countdowns, etc.) on a single
+ * ticker thread. Scheduling and cancelling are O(1). The ticker thread does not wake every tick: it parks until the
+ * tick of the earliest pending timeout, and indefinitely while there are none.
+ */
+public class TimerWheel {
+
+    /**
+     * The wheel shared by all the games in the JVM.
+     */
+    private static final TimerWheel shared = new TimerWheel(10, 512);
+
+    /**
+     * The logger of the failing tasks scheduled without a logger.
+     */
+    private static final Logger defaultLogger = Logger.getLogger(TimerWheel.class.getName());
+
+    /**
+     * The duration of a tick (the resolution of the timeouts) in nanoseconds.
+     */
+    private final long tickNanos;
+
+    /**
+     * The buckets of the wheel: bucket i holds the timeouts due in the ticks congruent to i (modulo the wheel size).
+     * Only accessed by the ticker thread.
+     */
+    private final Timeout[] buckets;
+
+    /**
+     * The mask mapping a tick to its bucket (the wheel size is a power of 2).
+     */
+    private final int mask;
+
+    /**
+     * The timeouts scheduled since the ticker thread last looked, waiting to be put in their buckets.
+     */
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The time the wheel started (System.nanoTime), from which the ticks are counted.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * The thread expiring the timeouts.
+     */
+    private final Thread ticker;
+
+    /**
+     * The time the ticker thread parks until (System.nanoTime, Long.MAX_VALUE while there are no timeouts). A new
+     * timeout only wakes the ticker if it is due before that time.
+     */
+    private volatile long wakeTime = Long.MAX_VALUE;
+
+    /**
+     * A scheduled task. Timeouts may be cancelled from any thread until they expire.
+     */
+    public static final class Timeout {
+
+        private final long deadline;
+        private final Runnable task;
+        private final Logger logger;
+        private volatile boolean cancelled;
+        private volatile boolean expired;
+
+        /**
+         * The tick in which the timeout expires, and the next timeout in the same bucket (both only accessed by the
+         * ticker thread).
+         */
+        private long dueTick;
+        private Timeout next;
+
+        private Timeout(long deadline, Runnable task, Logger logger) {
+            this.deadline = deadline;
+            this.task = task;
+            this.logger = logger;
+        }
+
+        /**
+         * Cancels the timeout (has no effect if it already expired).
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return - true iff the task ran (or is running).
+         */
+        public boolean isExpired() {
+            return expired;
+        }
+    }
+
+    /**
+     * @param tickMillis - the duration of a tick in milliseconds.
+     * @param wheelSize  - the number of buckets (rounded up to a power of 2).
+     */
+    TimerWheel(long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.ticker = new Thread(this::run, "timer-wheel");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * @return - the timer wheel shared by all the games in the JVM.
+     */
+    public static TimerWheel shared() {
+        return shared;
+    }
+
+    /**
+     * Schedules a task to run once on the ticker thread, no earlier than the given delay. Tasks should be short, as
+     * they delay all the other timeouts. A task that throws is logged to the logger of this class.
+     *
+     * @param delayMillis - the delay in milliseconds.
+     * @param task        - the task to run.
+     * @return - the timeout, which may be used to cancel the task.
+     */
+    public Timeout schedule(long delayMillis, Runnable task) {
+        return schedule(delayMillis, task, defaultLogger);
+    }
+
+    /**
+     * Schedules a task to run once on the ticker thread, no earlier than the given delay. Tasks should be short, as
+     * they delay all the other timeouts.
+     *
+     * @param delayMillis - the delay in milliseconds.
+     * @param task        - the task to run.
+     * @param logger      - the logger of the exception, if the task throws.
+     * @return - the timeout, which may be used to cancel the task.
+     */
+    public Timeout schedule(long delayMillis, Runnable task, Logger logger) {
+        Timeout timeout = new Timeout(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)), task, logger);
+        scheduled.add(timeout);
+        // the ticker rechecks the scheduled queue after publishing its wake time, so one of the two sees the other
+        if (start + ((timeout.deadline - start) / tickNanos + 1) * tickNanos < wakeTime) LockSupport.unpark(ticker);
+        return timeout;
+    }
+
+    /**
+     * The main loop of the ticker thread. Tick t is handled once its whole duration has passed, so a timeout is never
+     * expired before its deadline. The ticks without due timeouts are skipped without waking. The tick of the
+     * earliest timeout is kept as a hint: new timeouts only lower it, and the wheel is scanned for the next one only
+     * after expiring a tick.
+     */
+    private void run() {
+        long tick = 0;
+        long dueTick = -1; // the tick of the earliest timeout (which may have been cancelled since), or -1 if none
+        while (true) {
+            dueTick = addScheduled(tick, dueTick);
+            if (dueTick < 0) {
+                wakeTime = Long.MAX_VALUE;
+                if (scheduled.isEmpty()) LockSupport.park(this);
+                continue;
+            }
+
+            long wakeAt = start + (dueTick + 1) * tickNanos;
+            long wait = wakeAt - System.nanoTime();
+            if (wait > 0) {
+                wakeTime = wakeAt;
+                if (scheduled.isEmpty()) LockSupport.parkNanos(this, wait);
+                continue;
+            }
+
+            tick = dueTick;
+            expire(tick);
+            ++tick;
+            dueTick = nextDueTick(tick);
+        }
+    }
+
+    /**
+     * Moves the newly scheduled timeouts into their buckets.
+     *
+     * @param tick    - the next tick to handle.
+     * @param dueTick - the tick of the earliest timeout in the buckets, or -1 if none.
+     * @return - the tick of the earliest timeout in the buckets after adding the new ones, or -1 if none.
+     */
+    private long addScheduled(long tick, long dueTick) {
+        for (Timeout timeout = scheduled.poll(); timeout != null; timeout = scheduled.poll()) {
+            if (timeout.cancelled) continue;
+            timeout.dueTick = Math.max(tick, (timeout.deadline - start) / tickNanos);
+            int bucket = (int) (timeout.dueTick & mask);
+            timeout.next = buckets[bucket];
+            buckets[bucket] = timeout;
+            if (dueTick < 0 || timeout.dueTick < dueTick) dueTick = timeout.dueTick;
+        }
+        return dueTick;
+    }
+
+    /**
+     * Finds the tick of the earliest pending timeout, dropping the cancelled ones on the way. The buckets are scanned
+     * in tick order, so the scan stops at the first bucket holding a timeout due in this turn of the wheel.
+     *
+     * @param tick - the next tick to handle.
+     * @return - the tick of the earliest pending timeout, or -1 if there is none.
+     */
+    private long nextDueTick(long tick) {
+        long earliest = -1;
+        for (int i = 0; i < buckets.length; ++i) {
+            int bucket = (int) ((tick + i) & mask);
+            Timeout previous = null;
+            for (Timeout timeout = buckets[bucket]; timeout != null; timeout = timeout.next) {
+                if (timeout.cancelled) {
+                    if (previous == null) buckets[bucket] = timeout.next;
+                    else previous.next = timeout.next;
+                    continue;
+                }
+                if (earliest < 0 || timeout.dueTick < earliest) earliest = timeout.dueTick;
+                previous = timeout;
+            }
+            if (earliest >= 0 && earliest <= tick + i) return earliest;
+        }
+        return earliest;
+    }
+
+    /**
+     * Expires the due timeouts in the bucket of the tick.
+     */
+    private void expire(long tick) {
+        int bucket = (int) (tick & mask);
+        Timeout previous = null;
+        for (Timeout timeout = buckets[bucket]; timeout != null; timeout = timeout.next) {
+            if (!timeout.cancelled && timeout.dueTick > tick) {
+                previous = timeout;
+                continue;
+            }
+
+            if (previous == null) buckets[bucket] = timeout.next;
+            else previous.next = timeout.next;
+            if (!timeout.cancelled) {
+                timeout.expired = true;
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) { // a failing task must not stop the other timeouts
+                    timeout.logger.log(Level.SEVERE, "timer task failed", e);
+                }
+            }
+        }
+    }
+}
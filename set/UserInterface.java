@@ -18,6 +18,19 @@ public interface UserInterface {
      */
     void removeCard(int slot);
 
+    /**
+     * Draw the card images of several slots at once, and remove all players names text from these slots.
+     * @param slots - the slot numbers (for grid; slot = row*row.length + column).
+     * @param cards - the card id to draw in the respective slot, or -1 to draw an empty card image.
+     */
+    default void updateCards(int[] slots, int[] cards) {
+        for (int i = 0; i < slots.length; ++i) {
+            removeTokens(slots[i]);
+            if (cards[i] == -1) removeCard(slots[i]);
+            else placeCard(cards[i], slots[i]);
+        }
+    }
+
     /**
      * Draw a player name text in the specified slot.
      * @param player - the card id.
@@ -84,4 +97,20 @@ public interface UserInterface {
      * Programmatically closes the window.
      */
     void dispose();
+
+    /**
+     * The minimal time between two frames shown by the user interface, so the game does not update the countdown
+     * faster than it can be seen.
+     * @return - the frame time in milliseconds, or 0 if the user interface does not show the countdown.
+     */
+    default long frameMillis() {
+        return 10;
+    }
+
+    /**
+     * @return - true iff the user interface draws on the console, so nothing else may print to it while it is shown.
+     */
+    default boolean ownsConsole() {
+        return false;
+    }
 }
@@ -33,6 +33,15 @@ public class UserInterfaceDecorator implements UserInterface {
         if (ui != null) ui.removeCard(slot);
     }
 
+    @Override
+    public void updateCards(int[] slots, int[] cards) {
+        for (int i = 0; i < slots.length; ++i)
+            if (cards[i] == -1) logger.severe("removing card from slot " + slots[i]);
+            else logger.severe("placing card " + cards[i] + " in slot " + slots[i]);
+        util.spin();
+        if (ui != null) ui.updateCards(slots, cards);
+    }
+
     @Override
     public void placeToken(int player, int slot) {
         logger.severe("player " + (player + 1) + " placing token on slot " + slot);
@@ -101,4 +110,14 @@ public class UserInterfaceDecorator implements UserInterface {
         logger.severe("disposing of user interface elements");
         if (ui != null) ui.dispose();
     }
+
+    @Override
+    public long frameMillis() {
+        return ui == null ? 0 : ui.frameMillis();
+    }
+
+    @Override
+    public boolean ownsConsole() {
+        return ui != null && ui.ownsConsole();
+    }
 }
@@ -0,0 +1,279 @@
+package bguspl.set;
+
+import java.awt.EventQueue;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A user interface that records the changes of the game state made by the game threads, and applies them to the
+ * wrapped (Swing) user interface on the event dispatch thread, at most once per frame. Only the latest state is
+ * applied, so overwritten countdowns and tokens placed and removed within a frame are never rendered, and the game
+ * threads never wait for rendering.
+ */
+public class UserInterfaceDispatcher implements UserInterface {
+
+    /**
+     * The value of a state that was not set yet.
+     */
+    private static final long UNSET = Long.MIN_VALUE;
+
+    /**
+     * The kinds of text on the timer (in the 2 low bits of the timer state).
+     */
+    private static final int COUNTDOWN = 0;
+    private static final int COUNTDOWN_WARN = 1;
+    private static final int ELAPSED = 2;
+
+    private final Config config;
+    private final UserInterface ui;
+
+    /**
+     * The minimal time between frames, in milliseconds.
+     */
+    private final long frameMillis;
+
+    /**
+     * The number of words in the row of a slot in the token state (one bit per player).
+     */
+    private final int playerWords;
+
+    /**
+     * The latest state set by the game threads: the card in each slot (-1 if none), the players with a token on each
+     * slot, the timer (the milliseconds shifted left by 2, or'ed with the kind of text), and the freeze and the score
+     * of each player.
+     */
+    private final AtomicIntegerArray cards;
+    private final AtomicLongArray tokens;
+    private volatile long timer = UNSET;
+    private final AtomicLongArray freezes;
+    private final AtomicIntegerArray scores;
+
+    /**
+     * The state currently shown by the wrapped user interface (accessed by the event dispatch thread only).
+     */
+    private final int[] shownCards;
+    private final long[] shownTokens;
+    private long shownTimer = UNSET;
+    private final long[] shownFreezes;
+    private final int[] shownScores;
+
+    /**
+     * True iff a frame was scheduled and did not start yet.
+     */
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+
+    /**
+     * The time the last frame started (accessed by the event dispatch thread only, read when scheduling).
+     */
+    private volatile long lastFrame;
+
+    /**
+     * The frame event, created once so scheduling it does not allocate.
+     */
+    private final Runnable frameEvent = () -> EventQueue.invokeLater(this::flush);
+
+    /**
+     * @param config - the game configuration (UiFps sets the frame rate).
+     * @param ui     - the user interface rendering the frames.
+     */
+    public UserInterfaceDispatcher(Config config, UserInterface ui) {
+        this.config = config;
+        this.ui = ui;
+        this.frameMillis = 1000L / Math.max(1, config.uiFps);
+        this.playerWords = (config.players + 63) >>> 6;
+
+        cards = new AtomicIntegerArray(config.tableSize);
+        shownCards = new int[config.tableSize];
+        Arrays.fill(shownCards, -1);
+        for (int slot = 0; slot < config.tableSize; ++slot)
+            cards.set(slot, -1);
+        tokens = new AtomicLongArray(config.tableSize * playerWords);
+        shownTokens = new long[config.tableSize * playerWords];
+        freezes = new AtomicLongArray(config.players);
+        shownFreezes = new long[config.players];
+        for (int player = 0; player < config.players; ++player)
+            freezes.set(player, UNSET);
+        Arrays.fill(shownFreezes, UNSET);
+        scores = new AtomicIntegerArray(config.players);
+        shownScores = new int[config.players];
+    }
+
+    /**
+     * Schedules a frame if none is scheduled: at the next frame boundary, on the event dispatch thread.
+     */
+    private void changed() {
+        if (!frameScheduled.compareAndSet(false, true)) return;
+        long delay = lastFrame + frameMillis - System.currentTimeMillis();
+        if (delay <= 0) EventQueue.invokeLater(this::flush);
+        else TimerWheel.shared().schedule(delay, frameEvent);
+    }
+
+    /**
+     * Applies the latest state to the wrapped user interface (on the event dispatch thread only).
+     */
+    private void flush() {
+        frameScheduled.set(false); // before reading the state, so later changes schedule another frame
+        lastFrame = System.currentTimeMillis();
+
+        // cards (the wrapped user interface removes the tokens from the slots it updates)
+        int[] slots = null;
+        int[] slotCards = null;
+        int changedCards = 0;
+        for (int slot = 0; slot < shownCards.length; ++slot) {
+            int card = cards.get(slot);
+            if (card == shownCards[slot]) continue;
+            if (slots == null) {
+                slots = new int[shownCards.length];
+                slotCards = new int[shownCards.length];
+            }
+            slots[changedCards] = slot;
+            slotCards[changedCards++] = card;
+            shownCards[slot] = card;
+            Arrays.fill(shownTokens, slot * playerWords, (slot + 1) * playerWords, 0L);
+        }
+        if (changedCards > 0)
+            ui.updateCards(Arrays.copyOf(slots, changedCards), Arrays.copyOf(slotCards, changedCards));
+
+        // tokens
+        for (int word = 0; word < shownTokens.length; ++word) {
+            long current = tokens.get(word);
+            long diff = current ^ shownTokens[word];
+            if (diff == 0) continue;
+            int slot = word / playerWords;
+            for (; diff != 0; diff &= diff - 1) {
+                int bit = Long.numberOfTrailingZeros(diff);
+                int player = (word % playerWords << 6) + bit;
+                if ((current & (1L << bit)) != 0) ui.placeToken(player, slot);
+                else ui.removeToken(player, slot);
+            }
+            shownTokens[word] = current;
+        }
+
+        // timer
+        long currentTimer = timer;
+        if (currentTimer != shownTimer && currentTimer != UNSET) {
+            long millies = currentTimer >> 2;
+            int kind = (int) (currentTimer & 3);
+            if (kind == ELAPSED) ui.setElapsed(millies);
+            else ui.setCountdown(millies, kind == COUNTDOWN_WARN);
+            shownTimer = currentTimer;
+        }
+
+        // players
+        for (int player = 0; player < shownFreezes.length; ++player) {
+            long freeze = freezes.get(player);
+            if (freeze != shownFreezes[player]) {
+                ui.setFreeze(player, freeze);
+                shownFreezes[player] = freeze;
+            }
+            int score = scores.get(player);
+            if (score != shownScores[player]) {
+                ui.setScore(player, score);
+                shownScores[player] = score;
+            }
+        }
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        cards.set(slot, card);
+        changed();
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        cards.set(slot, -1);
+        changed();
+    }
+
+    @Override
+    public void updateCards(int[] slots, int[] cards) {
+        for (int i = 0; i < slots.length; ++i) {
+            clearTokens(slots[i]);
+            this.cards.set(slots[i], cards[i]);
+        }
+        changed();
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        tokens.accumulateAndGet(slot * playerWords + (player >>> 6), 1L << player, (word, bit) -> word | bit);
+        changed();
+    }
+
+    @Override
+    public void removeTokens() {
+        for (int slot = 0; slot < config.tableSize; ++slot)
+            clearTokens(slot);
+        changed();
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        clearTokens(slot);
+        changed();
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        tokens.accumulateAndGet(slot * playerWords + (player >>> 6), ~(1L << player), (word, mask) -> word & mask);
+        changed();
+    }
+
+    private void clearTokens(int slot) {
+        for (int word = slot * playerWords; word < (slot + 1) * playerWords; ++word)
+            tokens.set(word, 0L);
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        timer = millies << 2 | (warn ? COUNTDOWN_WARN : COUNTDOWN);
+        changed();
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        timer = millies << 2 | ELAPSED;
+        changed();
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        freezes.set(player, millies);
+        changed();
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        scores.set(player, score);
+        changed();
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        EventQueue.invokeLater(() -> {
+            flush();
+            ui.announceWinner(players);
+        });
+    }
+
+    @Override
+    public void dispose() {
+        EventQueue.invokeLater(() -> {
+            flush();
+            ui.dispose();
+        });
+    }
+
+    @Override
+    public long frameMillis() {
+        return frameMillis;
+    }
+
+    @Override
+    public boolean ownsConsole() {
+        return ui.ownsConsole();
+    }
+}
@@ -0,0 +1,29 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.util.logging.Logger;
+
+/**
+ * A user interface backend, selected by name with the UserInterface configuration. Backends other than the built-in
+ * ones are found with ServiceLoader, so they are registered in META-INF/services/bguspl.set.UserInterfaceProvider.
+ * Providers are created for every lookup, so their constructors should not load anything.
+ */
+public interface UserInterfaceProvider {
+
+    /**
+     * @return - the name of the backend, as used in the configuration (e.g. "swing").
+     */
+    String name();
+
+    /**
+     * Creates the user interface.
+     *
+     * @param logger  - the logger.
+     * @param config  - the game configuration.
+     * @param players - the players (created later, so only the array may be kept).
+     * @return - the user interface, or null to run without one.
+     * @throws Exception - if the user interface cannot be created on this host.
+     */
+    UserInterface create(Logger logger, Config config, Player[] players) throws Exception;
+}
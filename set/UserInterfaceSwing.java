@@ -4,8 +4,7 @@ import bguspl.set.ex.Player;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.FileNotFoundException;
-import java.net.URL;
+import java.awt.image.BufferedImage;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
@@ -32,7 +31,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
         this.config = config;
         timerPanel = new TimerPanel();
-        gamePanel = new GamePanel();
+        gamePanel = new GamePanel(logger);
         playersPanel = new PlayersPanel();
         winnerPanel = new WinnerPanel();
 
@@ -102,73 +101,102 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     private class GamePanel extends JLayeredPane {
 
-        private final Image emptyCard;
-        private final Image[] deck;
-        private final Image[][] grid;
+        private final int[][] grid; // the card in each cell (-1 if none)
+        private final CardImages images;
         private final boolean[][][] playerTokens;
-        private final JLabel[][] tokenText;
 
-        private Image loadImageResource(String filename) {
-            URL imageResource = getClass().getClassLoader().getResource(filename);
-            if (imageResource == null)
-                throw new RuntimeException(new FileNotFoundException(filename));
-            return new ImageIcon(imageResource).getImage();
+        /**
+         * The token overlay glyphs: the name of each player and the separator between names, rendered once.
+         */
+        private final BufferedImage[] playerGlyphs;
+        private final BufferedImage separatorGlyph;
+
+        private BufferedImage compatibleImage(int width, int height) {
+            return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration()
+                    .createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        }
+
+        private BufferedImage renderGlyph(String text, Font font) {
+            FontMetrics metrics = getFontMetrics(font);
+            BufferedImage glyph = compatibleImage(Math.max(1, metrics.stringWidth(text)), metrics.getHeight());
+            Graphics2D g = glyph.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(font);
+            g.setColor(Color.BLACK);
+            g.drawString(text, 0, metrics.getAscent());
+            g.dispose();
+            return glyph;
         }
 
-        private GamePanel() {
+        private GamePanel(Logger logger) {
 
             setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
 
-            // init deck and load all pictures from png files
+            // render the token overlay glyphs in the default label font
+            Font tokenFont = UIManager.getFont("Label.font");
+            playerGlyphs = new BufferedImage[config.players];
+            for (int player = 0; player < config.players; player++)
+                playerGlyphs[player] = renderGlyph(config.playerNames[player], tokenFont);
+            separatorGlyph = renderGlyph(", ", tokenFont);
+
+            grid = new int[config.rows][config.columns];
+            playerTokens = new boolean[config.players][config.rows][config.columns];
+            for (int row = 0; row < config.rows; row++)
+                Arrays.fill(grid[row], -1); // init the cards on the table grid as empty cards
+
+            // load the card images in the background (empty cards are shown until they are ready)
             assert config.featureSize < 10; // otherwise there will be naming conflicts
+            images = new CardImages(logger, config, card -> EventQueue.invokeLater(() -> repaintCard(card)));
+        }
 
-            // load the image resources
-            deck = new Image[config.deckSize];
-            for (int i = 0; i < config.deckSize; ++i)
-                deck[i] = loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
-            emptyCard = loadImageResource("cards/empty_card.png");
+        /**
+         * Repaints the cells showing a card (when its image is ready).
+         */
+        private void repaintCard(int card) {
+            for (int slot = 0; slot < config.tableSize; slot++)
+                if (grid[slot / config.columns][slot % config.columns] == card)
+                    repaintSlot(slot);
+        }
 
-            grid = new Image[config.rows][config.columns];
-            tokenText = new JLabel[config.rows][config.columns];
-            playerTokens = new boolean[config.players][config.rows][config.columns];
-            for (int row = 0; row < config.rows; row++) {
-                for (int column = 0; column < config.columns; column++) {
-                    // init the cards on the table grid as empty cards
-                    grid[row][column] = emptyCard;
-
-                    // init the JLabel selection overlay
-                    tokenText[row][column] = new JLabel("");
-                    tokenText[row][column].setVerticalAlignment(JLabel.TOP);
-                    tokenText[row][column].setHorizontalAlignment(JLabel.CENTER);
-                    tokenText[row][column].setOpaque(false);
-                    tokenText[row][column].setBorder(BorderFactory.createLineBorder(Color.black));
-                    tokenText[row][column].setBounds((column * config.cellWidth), (row * config.cellHeight), config.cellWidth, config.cellHeight);
-                    add(tokenText[row][column]);
-                }
-            }
+        /**
+         * Marks the cell of a slot for repainting (only the dirty cells are painted).
+         */
+        private void repaintSlot(int slot) {
+            int row = slot / config.columns;
+            int column = slot % config.columns;
+            repaint(column * config.cellWidth, row * config.cellHeight, config.cellWidth, config.cellHeight);
         }
 
         private void placeCard(int slot, int card) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            grid[row][column] = deck[card];
-            validate();
-            repaint();
+            grid[row][column] = card;
+            repaintSlot(slot);
         }
 
         private void removeCard(int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            grid[row][column] = emptyCard;
-            validate();
-            repaint();
+            grid[row][column] = -1;
+            repaintSlot(slot);
+        }
+
+        private void updateCards(int[] slots, int[] cards) {
+            for (int i = 0; i < slots.length; ++i) {
+                int row = slots[i] / config.columns;
+                int column = slots[i] % config.columns;
+                grid[row][column] = cards[i];
+                for (int player = 0; player < playerTokens.length; player++)
+                    playerTokens[player][row][column] = false;
+                repaintSlot(slots[i]);
+            }
         }
 
         private void placeToken(int player, int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
             playerTokens[player][row][column] = true;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            repaintSlot(slot);
         }
 
         private void removeTokens() {
@@ -179,36 +207,72 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         private void removeTokens(int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            for (int player = 0; player < playerTokens.length; player++) {
+            for (int player = 0; player < playerTokens.length; player++)
                 playerTokens[player][row][column] = false;
-                tokenText[row][column].setText(generatePlayersTokenText(row, column));
-            }
+            repaintSlot(slot);
         }
 
         private void removeToken(int player, int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
             playerTokens[player][row][column] = false;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            repaintSlot(slot);
         }
 
-        private String generatePlayersTokenText(int row, int column) {
-            String text = "";
-            for (int player = 0; player < config.players; player++) {
+        /**
+         * Draws the names of the players with a token on a cell, separated by commas, centered at the top of the cell.
+         */
+        private void paintTokens(Graphics g, int row, int column) {
+            int width = 0;
+            for (int player = 0; player < config.players; player++)
                 if (playerTokens[player][row][column])
-                    text = text.concat(config.playerNames[player] + ", ");
+                    width += (width > 0 ? separatorGlyph.getWidth() : 0) + playerGlyphs[player].getWidth();
+            if (width == 0) return;
+
+            int x = column * config.cellWidth + (config.cellWidth - width) / 2;
+            int y = row * config.cellHeight;
+            if (width > config.cellWidth) { // keep the overflowing names inside the cell
+                g = g.create(column * config.cellWidth, y, config.cellWidth, config.cellHeight);
+                x = 0;
+                y = 0;
             }
-            if (text.length() < 2)
-                return "";
-            return text.substring(0, text.length() - 2);
+            boolean first = true;
+            for (int player = 0; player < config.players; player++) {
+                if (!playerTokens[player][row][column]) continue;
+                if (!first) {
+                    g.drawImage(separatorGlyph, x, y, null);
+                    x += separatorGlyph.getWidth();
+                }
+                g.drawImage(playerGlyphs[player], x, y, null);
+                x += playerGlyphs[player].getWidth();
+                first = false;
+            }
+            if (width > config.cellWidth) g.dispose();
         }
 
         @Override
         public void paintComponent(Graphics g) {
-            // draw card images
-            for (int row = 0; row < config.rows; row++)
-                for (int column = 0; column < config.columns; column++)
-                    g.drawImage(grid[row][column], (column * config.cellWidth), (row * config.cellHeight), this);
+            // draw the cells intersecting the dirty region only
+            Rectangle clip = g.getClipBounds();
+            int firstRow = 0, lastRow = config.rows - 1, firstColumn = 0, lastColumn = config.columns - 1;
+            if (clip != null) {
+                firstRow = Math.max(firstRow, clip.y / config.cellHeight);
+                lastRow = Math.min(lastRow, (clip.y + clip.height - 1) / config.cellHeight);
+                firstColumn = Math.max(firstColumn, clip.x / config.cellWidth);
+                lastColumn = Math.min(lastColumn, (clip.x + clip.width - 1) / config.cellWidth);
+            }
+
+            g.setColor(Color.BLACK);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    int x = column * config.cellWidth;
+                    int y = row * config.cellHeight;
+                    int card = grid[row][column];
+                    g.drawImage(card == -1 ? images.empty() : images.image(card), x, y, null);
+                    paintTokens(g, row, column);
+                    g.drawRect(x, y, config.cellWidth - 1, config.cellHeight - 1);
+                }
+            }
         }
     }
 
@@ -284,6 +348,11 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         gamePanel.removeCard(slot);
     }
 
+    @Override
+    public void updateCards(int[] slots, int[] cards) {
+        gamePanel.updateCards(slots, cards);
+    }
+
     @Override
     public void placeToken(int player, int slot) {
         gamePanel.placeToken(player, slot);
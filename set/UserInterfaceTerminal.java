@@ -0,0 +1,333 @@
+package bguspl.set;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A user interface drawing the game on a terminal with ANSI escape codes, for hosts without a display. The game
+ * threads only record the latest state; a renderer thread draws it at a fixed refresh rate, and only rewrites the
+ * fields of the screen (cards, tokens, timer, players) whose text changed since the last frame.
+ */
+public class UserInterfaceTerminal implements UserInterface {
+
+    private static final String ESC = "\u001b[";
+    private static final String RESET = ESC + "0m";
+    private static final String RED = ESC + "31m";
+
+    /**
+     * The width of a cell in characters, the number of lines of a cell, and the first line of the grid.
+     */
+    private static final int CELL_WIDTH = 18;
+    private static final int CELL_LINES = 3;
+    private static final int GRID_LINE = 3;
+
+    /**
+     * The maximal number of players listed below the grid.
+     */
+    private static final int MAX_PLAYER_LINES = 16;
+
+    /**
+     * The value of a state that was not set yet.
+     */
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final Config config;
+    private final PrintStream out;
+
+    /**
+     * The time between frames, in nanoseconds.
+     */
+    private final long frameNanos;
+
+    /**
+     * The number of words in the row of a slot in the token state (one bit per player).
+     */
+    private final int playerWords;
+
+    /**
+     * The latest state set by the game threads: the card in each slot (-1 if none), the players with a token on each
+     * slot, the timer (the milliseconds, and whether to warn), the freeze and the score of each player, and the
+     * winner announcement.
+     */
+    private final AtomicIntegerArray cards;
+    private final AtomicLongArray tokens;
+    private volatile long timerMillies = UNSET;
+    private volatile boolean timerWarn;
+    private volatile boolean timerElapsed;
+    private final AtomicLongArray freezes;
+    private final AtomicIntegerArray scores;
+    private volatile String winner;
+
+    /**
+     * The text of each field currently on the screen (accessed by the renderer thread only).
+     */
+    private final String[] shownCards;
+    private final String[] shownTokens;
+    private String shownTimer;
+    private final String[] shownPlayers;
+    private String shownWinner;
+
+    /**
+     * The frame being written (reused by the renderer thread).
+     */
+    private final StringBuilder frame = new StringBuilder();
+
+    /**
+     * True iff the state changed since the last frame.
+     */
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+
+    private final Thread renderer;
+    private volatile boolean disposed;
+
+    /**
+     * @param config - the game configuration (TerminalFps sets the refresh rate).
+     * @param out    - the terminal.
+     */
+    public UserInterfaceTerminal(Config config, PrintStream out) {
+        this.config = config;
+        this.out = out;
+        this.frameNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, config.terminalFps);
+        this.playerWords = (config.players + 63) >>> 6;
+
+        cards = new AtomicIntegerArray(config.tableSize);
+        for (int slot = 0; slot < config.tableSize; ++slot)
+            cards.set(slot, -1);
+        tokens = new AtomicLongArray(config.tableSize * playerWords);
+        freezes = new AtomicLongArray(config.players);
+        scores = new AtomicIntegerArray(config.players);
+        shownCards = new String[config.tableSize];
+        shownTokens = new String[config.tableSize];
+        shownPlayers = new String[Math.min(config.players, MAX_PLAYER_LINES)];
+
+        out.print(ESC + "?25l" + ESC + "2J" + ESC + "H"); // hide the cursor and clear the screen
+        renderer = new Thread(this::run, "terminal-ui");
+        renderer.setDaemon(true);
+        renderer.start();
+    }
+
+    /**
+     * The main loop of the renderer thread: draws a frame whenever the state changed, at most once per frame time.
+     */
+    private void run() {
+        while (!disposed) {
+            LockSupport.parkNanos(this, frameNanos);
+            if (dirty.getAndSet(false)) render();
+        }
+    }
+
+    /**
+     * Writes the fields whose text changed to the terminal, in a single write.
+     */
+    private synchronized void render() {
+        frame.setLength(0);
+
+        long millies = timerMillies;
+        if (millies != UNSET) {
+            String timer = timerElapsed ? "Elapsed time: " + millies / 1000
+                    : timerWarn ? RED + String.format("Remaining Time: %.2f", millies / 1000.0) + RESET
+                    : "Remaining Time: " + millies / 1000;
+            if (!timer.equals(shownTimer)) {
+                moveTo(1, 1);
+                frame.append(timer).append(ESC).append('K');
+                shownTimer = timer;
+            }
+        }
+
+        for (int slot = 0; slot < config.tableSize; ++slot) {
+            int line = GRID_LINE + slot / config.columns * CELL_LINES;
+            int column = 1 + slot % config.columns * CELL_WIDTH;
+
+            String card = cardText(cards.get(slot));
+            if (!card.equals(shownCards[slot])) {
+                moveTo(line, column);
+                frame.append(card);
+                shownCards[slot] = card;
+            }
+            String names = tokensText(slot);
+            if (!names.equals(shownTokens[slot])) {
+                moveTo(line + 1, column);
+                frame.append(names);
+                shownTokens[slot] = names;
+            }
+        }
+
+        int playersLine = GRID_LINE + config.rows * CELL_LINES;
+        for (int player = 0; player < shownPlayers.length; ++player) {
+            long freeze = freezes.get(player);
+            String text = freeze > 0
+                    ? RED + config.playerNames[player] + " (" + freeze / 1000 + ")" + RESET + ": " + scores.get(player)
+                    : config.playerNames[player] + ": " + scores.get(player);
+            if (!text.equals(shownPlayers[player])) {
+                moveTo(playersLine + player, 1);
+                frame.append(text).append(ESC).append('K');
+                shownPlayers[player] = text;
+            }
+        }
+
+        String announcement = winner;
+        if (announcement != null && !announcement.equals(shownWinner)) {
+            moveTo(playersLine + shownPlayers.length + 1, 1);
+            frame.append(announcement).append(ESC).append('K');
+            shownWinner = announcement;
+        }
+
+        if (frame.length() > 0) {
+            out.print(frame);
+            out.flush();
+        }
+    }
+
+    private void moveTo(int line, int column) {
+        frame.append(ESC).append(line).append(';').append(column).append('H');
+    }
+
+    /**
+     * @return - the features of a card as digits, colored by its first feature, padded to the cell width.
+     */
+    private String cardText(int card) {
+        if (card == -1) return pad("", CELL_WIDTH);
+        StringBuilder digits = new StringBuilder(Integer.toString(card, config.featureSize));
+        while (digits.length() < config.featureCount) digits.insert(0, '0');
+        int color = 31 + Character.digit(digits.charAt(0), config.featureSize) % 6; // the first digit is the first feature
+        return ESC + color + "m[" + digits + "]" + RESET + pad("", CELL_WIDTH - digits.length() - 2);
+    }
+
+    /**
+     * @return - the names of the players with a token on a slot, truncated and padded to the cell width.
+     */
+    private String tokensText(int slot) {
+        StringBuilder names = new StringBuilder();
+        for (int word = 0; word < playerWords; ++word) {
+            for (long bits = tokens.get(slot * playerWords + word); bits != 0; bits &= bits - 1) {
+                if (names.length() > 0) names.append(',');
+                names.append(config.playerNames[(word << 6) + Long.numberOfTrailingZeros(bits)]);
+            }
+        }
+        return pad(names.length() > CELL_WIDTH - 1 ? names.substring(0, CELL_WIDTH - 1) : names.toString(), CELL_WIDTH);
+    }
+
+    private static String pad(String text, int width) {
+        StringBuilder padded = new StringBuilder(text);
+        while (padded.length() < width) padded.append(' ');
+        return padded.toString();
+    }
+
+    private void changed() {
+        dirty.set(true);
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        cards.set(slot, card);
+        changed();
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        cards.set(slot, -1);
+        changed();
+    }
+
+    @Override
+    public void updateCards(int[] slots, int[] cards) {
+        for (int i = 0; i < slots.length; ++i) {
+            clearTokens(slots[i]);
+            this.cards.set(slots[i], cards[i]);
+        }
+        changed();
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        tokens.accumulateAndGet(slot * playerWords + (player >>> 6), 1L << player, (word, bit) -> word | bit);
+        changed();
+    }
+
+    @Override
+    public void removeTokens() {
+        for (int slot = 0; slot < config.tableSize; ++slot)
+            clearTokens(slot);
+        changed();
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        clearTokens(slot);
+        changed();
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        tokens.accumulateAndGet(slot * playerWords + (player >>> 6), ~(1L << player), (word, mask) -> word & mask);
+        changed();
+    }
+
+    private void clearTokens(int slot) {
+        for (int word = slot * playerWords; word < (slot + 1) * playerWords; ++word)
+            tokens.set(word, 0L);
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        timerWarn = warn;
+        timerElapsed = false;
+        timerMillies = millies;
+        changed();
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        timerElapsed = true;
+        timerMillies = millies;
+        changed();
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        freezes.set(player, millies);
+        changed();
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        scores.set(player, score);
+        changed();
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        StringBuilder names = new StringBuilder();
+        for (int player : players)
+            names.append(names.length() > 0 ? " AND " : "").append(config.playerNames[player]);
+        winner = players.length == 1 ? "THE WINNER IS: " + names + "!!!" : "IT IS A DRAW: " + names + " WON!!!";
+        changed();
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        LockSupport.unpark(renderer);
+        synchronized (this) {
+            render();
+            frame.setLength(0);
+            moveTo(GRID_LINE + config.rows * CELL_LINES + shownPlayers.length + 3, 1);
+            out.print(frame.append(ESC).append("?25h")); // show the cursor again, below the game
+            out.flush();
+        }
+    }
+
+    @Override
+    public long frameMillis() {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(frameNanos));
+    }
+
+    @Override
+    public boolean ownsConsole() {
+        return true;
+    }
+}
@@ -0,0 +1,126 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ServiceLoader;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the user interface backend named in the configuration, among the built-in providers and the providers
+ * found with ServiceLoader. The built-in Swing backend is created through reflection, so running with the "none"
+ * backend never loads the java.awt classes.
+ */
+public final class UserInterfaces {
+
+    private UserInterfaces() {}
+
+    /**
+     * The built-in backend without a user interface.
+     */
+    private static final class NoneProvider implements UserInterfaceProvider {
+
+        @Override
+        public String name() {
+            return "none";
+        }
+
+        @Override
+        public UserInterface create(Logger logger, Config config, Player[] players) {
+            return null;
+        }
+    }
+
+    /**
+     * The built-in Swing backend (behind a frame-coalescing dispatcher, unless UiFps is 0).
+     */
+    private static final class SwingProvider implements UserInterfaceProvider {
+
+        @Override
+        public String name() {
+            return "swing";
+        }
+
+        @Override
+        public UserInterface create(Logger logger, Config config, Player[] players) throws Exception {
+            UserInterface ui = (UserInterface) newInstance("bguspl.set.UserInterfaceSwing",
+                    new Class<?>[]{Logger.class, Config.class, Player[].class}, logger, config, players);
+            if (config.uiFps > 0)
+                ui = (UserInterface) newInstance("bguspl.set.UserInterfaceDispatcher",
+                        new Class<?>[]{Config.class, UserInterface.class}, config, ui);
+            return ui;
+        }
+    }
+
+    /**
+     * The built-in ANSI terminal backend.
+     */
+    private static final class TerminalProvider implements UserInterfaceProvider {
+
+        @Override
+        public String name() {
+            return "terminal";
+        }
+
+        @Override
+        public UserInterface create(Logger logger, Config config, Player[] players) {
+            return new UserInterfaceTerminal(config, System.out);
+        }
+    }
+
+    /**
+     * Creates an object of a class loaded only now, rethrowing the exception of its constructor.
+     */
+    private static Object newInstance(String className, Class<?>[] types, Object... args) throws Exception {
+        try {
+            return Class.forName(className).getConstructor(types).newInstance(args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the provider of a backend: a provider found with ServiceLoader takes precedence over a built-in one
+     * with the same name.
+     *
+     * @param name - the name of the backend.
+     * @return - the provider, or null if there is none with this name.
+     */
+    public static UserInterfaceProvider provider(String name) {
+        for (UserInterfaceProvider provider : ServiceLoader.load(UserInterfaceProvider.class))
+            if (provider.name().equalsIgnoreCase(name)) return provider;
+        for (UserInterfaceProvider provider : new UserInterfaceProvider[]{new NoneProvider(), new SwingProvider(), new TerminalProvider()})
+            if (provider.name().equalsIgnoreCase(name)) return provider;
+        return null;
+    }
+
+    /**
+     * Creates the user interface of the backend named in the configuration. Falls back to running without a user
+     * interface if the backend is unknown or cannot be created on this host.
+     *
+     * @param logger  - the logger.
+     * @param config  - the game configuration.
+     * @param players - the players.
+     * @return - the user interface, or null to run without one.
+     */
+    public static UserInterface create(Logger logger, Config config, Player[] players) {
+        UserInterfaceProvider provider = provider(config.userInterface);
+        if (provider == null) {
+            logger.severe("unknown user interface " + config.userInterface);
+        } else {
+            try {
+                UserInterface ui = provider.create(logger, config, players);
+                if (ui != null || provider.name().equals("none")) return ui;
+            } catch (Exception | LinkageError e) {
+                logger.severe("error creating " + provider.name() + " user interface: " + e);
+            }
+        }
+        logger.severe("will try to run without user interface");
+        if (config.humanPlayers > 0)
+            logger.severe("warning: running with human players with no user interface");
+        return null;
+    }
+}
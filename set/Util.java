@@ -1,6 +1,7 @@
 package bguspl.set;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * An interface for general utilities provided for convenience.
@@ -15,6 +16,15 @@ public interface Util {
      */
     int[] cardToFeatures(int card);
 
+    /**
+     * Returns a single feature of a card (without allocating a features array).
+     *
+     * @param card    - the card id.
+     * @param feature - the feature index (in cardToFeatures order).
+     * @return - the value of the feature, between 0 and config.featureSize - 1.
+     */
+    int feature(int card, int feature);
+
     /**
      * Converts an array of card ids to an array of features (see cardToFeatures method).
      *
@@ -31,6 +41,24 @@ public interface Util {
      */
     boolean testSet(int[] cards);
 
+    /**
+     * Checks a batch of candidate sets at once.
+     *
+     * @param cards   - the card ids of the candidates, config.featureSize consecutive ids per candidate.
+     * @param count   - the number of candidates.
+     * @param results - a bitmask of at least count bits: bit i % 64 of word i / 64 is set iff candidate i is a legal set.
+     * @return - the number of legal sets among the candidates.
+     */
+    int testSets(int[] cards, int count, long[] results);
+
+    /**
+     * Finds the unique card that completes the given cards into a legal set.
+     *
+     * @param cards - an array of config.featureSize - 1 distinct card ids.
+     * @return - the id of the completing card, or -1 if no card completes the given cards into a legal set.
+     */
+    int completeSet(int[] cards);
+
     /**
      * Finds and returns up to count sets in the given collection of cards.
      *
@@ -40,6 +68,36 @@ public interface Util {
      */
     List<int[]> findSets(List<Integer> deck, int count);
 
+    /**
+     * Finds up to count sets in the first len cards of the given array and passes them to the sink.
+     *
+     * @param cards - an array of distinct card ids.
+     * @param len   - the number of cards to search in.
+     * @param count - the maximum number of sets to find.
+     * @param sink  - the consumer of the sets found (may stop the search early).
+     * @return - the number of sets passed to the sink.
+     */
+    int findSets(int[] cards, int len, int count, SetSink sink);
+
+    /**
+     * Lazily streams the sets in the first len cards of the given array. Sets are only searched as the stream is
+     * consumed, so short-circuiting operations (e.g. limit or findAny) stop the search, and parallel streams split it.
+     *
+     * @param cards - an array of distinct card ids (must not be changed while the stream is consumed).
+     * @param len   - the number of cards to search in.
+     * @return - a stream of the sorted card ids of each set. The arrays are reused by the stream, so copy them to keep them.
+     */
+    Stream<int[]> streamSets(int[] cards, int len);
+
+    /**
+     * Checks if the first len cards of the given array contain a legal set.
+     *
+     * @param cards - an array of distinct card ids.
+     * @param len   - the number of cards to search in.
+     * @return - true iff there is at least one legal set among the cards.
+     */
+    boolean hasSet(int[] cards, int len);
+
     /**
      * Spin a random number of times (for debugging/testing).
      */
@@ -3,8 +3,15 @@ package bguspl.set;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The implementation of the UserInterface interface.
@@ -13,15 +20,56 @@ public class UtilImpl implements Util {
 
     private final Config config;
 
+    /**
+     * Variants with at least this many features build the feature table on first use instead of at construction.
+     */
+    private static final int lazyFeatureTableCount = 6;
+
+    /**
+     * The features of all cards, config.featureCount consecutive values per card (in cardToFeatures order).
+     */
+    private volatile byte[] featureTable;
+
+    private final ThreadLocal<SearchScratch> scratch = ThreadLocal.withInitial(SearchScratch::new);
+
     public UtilImpl(Config config) {
         this.config = config;
+        if (config.featureCount < lazyFeatureTableCount)
+            featureTable = buildFeatureTable();
     }
 
-    private void cardToFeatures(int card, int[] features) {
-        for (int i = config.featureCount - 1; i >= 0; --i) {
-            features[i] = card % config.featureSize;
-            card /= config.featureSize;
+    private byte[] buildFeatureTable() {
+        byte[] table = new byte[config.deckSize * config.featureCount];
+        for (int card = 0; card < config.deckSize; ++card) {
+            int rest = card;
+            for (int i = config.featureCount - 1; i >= 0; --i) {
+                table[card * config.featureCount + i] = (byte) (rest % config.featureSize);
+                rest /= config.featureSize;
+            }
         }
+        return table;
+    }
+
+    private byte[] featureTable() {
+        byte[] table = featureTable;
+        if (table == null) {
+            synchronized (this) {
+                table = featureTable;
+                if (table == null) featureTable = table = buildFeatureTable();
+            }
+        }
+        return table;
+    }
+
+    @Override
+    public int feature(int card, int feature) {
+        return featureTable()[card * config.featureCount + feature];
+    }
+
+    private void cardToFeatures(int card, int[] features) {
+        byte[] table = featureTable();
+        for (int i = 0, base = card * config.featureCount; i < config.featureCount; ++i)
+            features[i] = table[base + i];
     }
 
     @Override
@@ -40,21 +88,22 @@ public class UtilImpl implements Util {
 
     @Override
     public boolean testSet(int[] cards) {
-        int[][] features = cardsToFeatures(Arrays.copyOf(cards, cards.length));
-        for (int i = 0; i < config.featureCount; ++i) {
+        byte[] table = featureTable();
+        int featureCount = config.featureCount;
+        for (int i = 0; i < featureCount; ++i) {
             boolean sameSame = true, butDifferent = true;
 
             // check if this features is sameSame in all cards
-            for (int j = 1; j < features.length; ++j)
-                if (features[0][i] != features[j][i]) {
+            for (int j = 1; j < cards.length; ++j)
+                if (table[cards[0] * featureCount + i] != table[cards[j] * featureCount + i]) {
                     sameSame = false;
                     break;
                 }
 
             // check if this feature is butDifferent in all cards
-            for (int j = 1; j < features.length; ++j)
-                for (int k = j; k < features.length; ++k)
-                    if (features[j - 1][i] == features[k][i]) {
+            for (int j = 1; j < cards.length; ++j)
+                for (int k = j; k < cards.length; ++k)
+                    if (table[cards[j - 1] * featureCount + i] == table[cards[k] * featureCount + i]) {
                         butDifferent = false;
                         break;
                     }
@@ -64,21 +113,192 @@ public class UtilImpl implements Util {
         return true;
     }
 
+    /**
+     * Checks the candidates 64 at a time with bit-sliced arithmetic. Each block is transposed into bit planes, where
+     * bit i of plane (j, f, v) is set iff card j of candidate i has value v in feature f. A feature is legal iff one
+     * value is shared by all cards or no value is shared by two, so the verdicts of the whole block come out of a fixed
+     * sequence of word-wide and/or operations with no branches on the cards.
+     */
+    @Override
+    public int testSets(int[] cards, int count, long[] results) {
+        byte[] table = featureTable();
+        int r = config.featureSize, featureCount = config.featureCount;
+        int cardPlanes = featureCount * r;
+        long[] planes = new long[r * cardPlanes];
+        int legal = 0;
+        for (int block = 0, first = 0; first < count; ++block, first += Long.SIZE) {
+            int lanes = Math.min(Long.SIZE, count - first);
+            Arrays.fill(planes, 0L);
+            for (int lane = 0; lane < lanes; ++lane)
+                for (int j = 0, base = (first + lane) * r; j < r; ++j) {
+                    int card = cards[base + j];
+                    for (int i = 0; i < featureCount; ++i)
+                        planes[j * cardPlanes + i * r + table[card * featureCount + i]] |= 1L << lane;
+                }
+
+            long ok = -1L >>> (Long.SIZE - lanes);
+            for (int i = 0; i < featureCount; ++i) {
+                long same = 0, shared = 0;
+                for (int v = 0, plane = i * r; v < r; ++v, ++plane) {
+                    long all = planes[plane], seen = planes[plane];
+                    for (int j = 1; j < r; ++j) {
+                        long cardPlane = planes[j * cardPlanes + plane];
+                        all &= cardPlane;
+                        shared |= seen & cardPlane;
+                        seen |= cardPlane;
+                    }
+                    same |= all;
+                }
+                ok &= same | ~shared;
+            }
+            results[block] = ok;
+            legal += Long.bitCount(ok);
+        }
+        return legal;
+    }
+
+    @Override
+    public int completeSet(int[] cards) {
+        return completeSet(cards, cards.length);
+    }
+
+    /**
+     * Computes the completing card one feature at a time: if the given cards agree on a feature, the completing card
+     * shares it; if they all differ, it takes the single remaining value; otherwise there is no completion.
+     */
+    private int completeSet(int[] cards, int len) {
+        byte[] table = featureTable();
+        int featureCount = config.featureCount;
+        int valuesSum = config.featureSize * (config.featureSize - 1) / 2;
+        int card = 0;
+        for (int i = 0; i < featureCount; ++i) {
+            int seen = 0, sum = 0;
+            for (int j = 0; j < len; ++j) {
+                int value = table[cards[j] * featureCount + i];
+                seen |= 1 << value;
+                sum += value;
+            }
+            int distinct = Integer.bitCount(seen);
+            if (distinct == 1) card = card * config.featureSize + sum / len;
+            else if (distinct == len) card = card * config.featureSize + valuesSum - sum;
+            else return -1;
+        }
+        return card;
+    }
+
     @Override
     public List<int[]> findSets(List<Integer> deck, int count) {
         LinkedList<int[]> sets = new LinkedList<>();
-        int n = deck.size();
+        int[] cards = deck.stream().mapToInt(Integer::intValue).toArray();
+        findSets(cards, cards.length, count, set -> sets.add(set.clone()));
+        return sets;
+    }
+
+    @Override
+    public int findSets(int[] cards, int len, int count, SetSink sink) {
+        if (count <= 0) return 0;
+        if (config.featureSize < 3) return findSetsByCombinations(cards, len, count, sink);
+        if (config.parallelSearchThreshold > 0 && len >= config.parallelSearchThreshold)
+            return findSetsInParallel(cards, len, count, sink);
+        return findSetsByCompletion(cards, len, count, sink);
+    }
+
+    @Override
+    public Stream<int[]> streamSets(int[] cards, int len) {
+        if (config.featureSize < 3) return findSets(Arrays.stream(cards, 0, len).boxed().collect(Collectors.toList()), Integer.MAX_VALUE).stream();
+        SearchScratch index = new SearchScratch();
+        index.index(cards, len);
+        return StreamSupport.stream(new SetSpliterator(cards, len, 0, len - config.featureSize + 1, index), false);
+    }
+
+    @Override
+    public boolean hasSet(int[] cards, int len) {
+        return findSets(cards, len, 1, set -> false) > 0;
+    }
+
+    /**
+     * Finds sets by completing every combination of config.featureSize - 1 cards with its unique completing card
+     * and looking it up in the card index of the search. For the classic game this visits O(n^2) pairs instead of
+     * O(n^3) triples.
+     */
+    private int findSetsByCompletion(int[] cards, int len, int count, SetSink sink) {
+        SearchScratch scratch = this.scratch.get();
+        scratch.index(cards, len);
+        return completeCombinations(cards, len, 0, len, scratch, count, sink);
+    }
+
+    /**
+     * Splits the combinations by the position of their first card across the common fork/join pool. The sink is
+     * called by one worker at a time, and the remaining workers stop as soon as count sets were accepted.
+     */
+    private int findSetsInParallel(int[] cards, int len, int count, SetSink sink) {
+        SearchScratch index = new SearchScratch();
+        index.index(cards, len);
+        ParallelSearch search = new ParallelSearch(count, sink);
+        int grain = Math.max(1, len / (ForkJoinPool.getCommonPoolParallelism() * 8));
+        ForkJoinPool.commonPool().invoke(new SearchTask(cards, len, 0, len, grain, index, search));
+        return search.found;
+    }
+
+    /**
+     * Completes the combinations of config.featureSize - 1 cards whose first card is at a position in [from, to).
+     *
+     * @return - the number of sets passed to the sink.
+     */
+    private int completeCombinations(int[] cards, int len, int from, int to, SearchScratch scratch, int count, SetSink sink) {
+        int k = config.featureSize - 1;
+        to = Math.min(to, len - k);
+        if (from >= to) return 0;
+
+        int epoch = scratch.epoch;
+        int[] combination = scratch.combination;
+        int[] partial = scratch.partial;
+        int[] set = scratch.set;
+        for (int i = 0; i < k; ++i)
+            combination[i] = from + i;
+
+        int found = 0;
+        while (true) {
+            for (int i = 0; i < k; ++i)
+                partial[i] = cards[combination[i]];
+
+            // count each set once: only when its completing card comes after the whole combination
+            int last = completeSet(partial, k);
+            if (last >= 0 && scratch.epochOf[last] == epoch && scratch.position[last] > combination[k - 1]) {
+                System.arraycopy(partial, 0, set, 0, k);
+                set[k] = last;
+                Arrays.sort(set);
+                ++found;
+                if (!sink.accept(set) || found >= count) return found;
+            }
+
+            // generate next combination in lexicographic order (leaving room for the completing card)
+            int t = k - 1;
+            while (t >= 0 && combination[t] == len - 1 - k + t) --t;
+            if (t < 0 || (t == 0 && combination[0] + 1 >= to)) return found;
+            combination[t]++;
+            for (int i = t + 1; i < k; i++) combination[i] = combination[i - 1] + 1;
+        }
+    }
+
+    /**
+     * Finds sets by testing every combination of config.featureSize cards (used when the completing card is not
+     * unique, i.e. for feature sizes smaller than 3).
+     */
+    private int findSetsByCombinations(int[] deck, int n, int count, SetSink sink) {
         int r = config.featureSize;
+        if (n < r) return 0;
         int[] combination = new int[r];
 
         for (int i = 0; i < r; ++i)
             combination[i] = i;
 
-        while (combination[r - 1] < deck.size()) {
-            int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
+        int found = 0;
+        while (combination[r - 1] < n) {
+            int[] cards = Arrays.stream(combination).map(i -> deck[i]).sorted().toArray();
             if (testSet(cards)) {
-                sets.add(cards);
-                if (sets.size() >= count) return sets;
+                ++found;
+                if (!sink.accept(cards) || found >= count) return found;
             }
 
             // generate next combination in lexicographic order
@@ -87,7 +307,190 @@ public class UtilImpl implements Util {
             combination[t]++;
             for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
         }
-        return sets;
+        return found;
+    }
+
+    /**
+     * Scratch space of the set search. The card index is stamped with a search epoch, so it never needs to be
+     * cleared between searches. Parallel workers share the index of the search but have their own work arrays.
+     */
+    private class SearchScratch {
+        final int[] epochOf;
+        final int[] position;
+        final int[] combination = new int[config.featureSize];
+        final int[] partial = new int[config.featureSize];
+        final int[] set = new int[config.featureSize];
+        int epoch;
+
+        SearchScratch() {
+            epochOf = new int[config.deckSize];
+            position = new int[config.deckSize];
+        }
+
+        SearchScratch(SearchScratch index) {
+            epochOf = index.epochOf;
+            position = index.position;
+            epoch = index.epoch;
+        }
+
+        void index(int[] cards, int len) {
+            if (++epoch == 0) {
+                Arrays.fill(epochOf, 0);
+                epoch = 1;
+            }
+            for (int i = 0; i < len; ++i) {
+                epochOf[cards[i]] = epoch;
+                position[cards[i]] = i;
+            }
+        }
+    }
+
+    /**
+     * A spliterator producing the sets completed from the combinations whose first card is at a position in
+     * [from, to), one combination at a time. Splitting hands the upper half of the unvisited first positions to a
+     * new spliterator with its own scratch arrays.
+     */
+    private class SetSpliterator implements Spliterator<int[]> {
+        private final int[] cards;
+        private final int len;
+        private final int k = config.featureSize - 1;
+        private final SearchScratch scratch;
+        private int from;
+        private int to;
+        private boolean started;
+
+        SetSpliterator(int[] cards, int len, int from, int to, SearchScratch index) {
+            this.cards = cards;
+            this.len = len;
+            this.from = from;
+            this.to = to;
+            this.scratch = new SearchScratch(index);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            while (nextCombination()) {
+                int[] partial = scratch.partial;
+                int[] combination = scratch.combination;
+                for (int i = 0; i < k; ++i)
+                    partial[i] = cards[combination[i]];
+
+                int last = completeSet(partial, k);
+                if (last >= 0 && scratch.epochOf[last] == scratch.epoch && scratch.position[last] > combination[k - 1]) {
+                    int[] set = scratch.set;
+                    System.arraycopy(partial, 0, set, 0, k);
+                    set[k] = last;
+                    Arrays.sort(set);
+                    action.accept(set);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean nextCombination() {
+            int[] combination = scratch.combination;
+            if (!started) {
+                if (from >= to) return false;
+                for (int i = 0; i < k; ++i)
+                    combination[i] = from + i;
+                started = true;
+                return true;
+            }
+
+            // generate next combination in lexicographic order (leaving room for the completing card)
+            int t = k - 1;
+            while (t >= 0 && combination[t] == len - 1 - k + t) --t;
+            if (t < 0 || (t == 0 && combination[0] + 1 >= to)) {
+                from = to;
+                return false;
+            }
+            combination[t]++;
+            for (int i = t + 1; i < k; i++) combination[i] = combination[i - 1] + 1;
+            return true;
+        }
+
+        @Override
+        public Spliterator<int[]> trySplit() {
+            int unvisited = started ? scratch.combination[0] + 1 : from;
+            if (to - unvisited < 2) return null;
+            int mid = (unvisited + to) >>> 1;
+            Spliterator<int[]> upper = new SetSpliterator(cards, len, mid, to, scratch);
+            to = mid;
+            return upper;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Math.max(0, (long) (to - from) * (len - from) / 2);
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL;
+        }
+    }
+
+    /**
+     * The state shared by the workers of a parallel search.
+     */
+    private static class ParallelSearch {
+        final int count;
+        final SetSink sink;
+        volatile boolean stopped;
+        int found;
+
+        ParallelSearch(int count, SetSink sink) {
+            this.count = count;
+            this.sink = sink;
+        }
+
+        synchronized boolean accept(int[] set) {
+            if (stopped) return false;
+            ++found;
+            if (!sink.accept(set) || found >= count) stopped = true;
+            return !stopped;
+        }
+    }
+
+    /**
+     * A fork/join task searching the combinations whose first card is at a position in [from, to).
+     */
+    private class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] cards;
+        private final int len;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final transient SearchScratch index; // tasks are never serialized
+        private final transient ParallelSearch search;
+
+        SearchTask(int[] cards, int len, int from, int to, int grain, SearchScratch index, ParallelSearch search) {
+            this.cards = cards;
+            this.len = len;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.index = index;
+            this.search = search;
+        }
+
+        @Override
+        protected void compute() {
+            if (search.stopped) return;
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SearchTask(cards, len, from, mid, grain, index, search),
+                        new SearchTask(cards, len, mid, to, grain, index, search));
+                return;
+            }
+            SearchScratch scratch = new SearchScratch(index);
+            SetSink sink = search::accept;
+            for (int first = from; first < to && !search.stopped; ++first)
+                completeCombinations(cards, len, first, first + 1, scratch, Integer.MAX_VALUE, sink);
+        }
     }
 
     public void spin() {
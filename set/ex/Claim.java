@@ -0,0 +1,49 @@
+package bguspl.set.ex;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A player's claim that the cards under its tokens form a legal set.
+ *
+ * @inv slots.length == cards.length
+ */
+final class Claim {
+
+    /**
+     * The id of the claiming player.
+     */
+    final int player;
+
+    /**
+     * The slots of the player's tokens when the claim was made.
+     */
+    final int[] slots;
+
+    /**
+     * The cards in the respective slots when the claim was made.
+     */
+    final int[] cards;
+
+    /**
+     * The table version the cards were read at.
+     */
+    final long version;
+
+    /**
+     * The time the claim was made (System.nanoTime), which orders competing claims.
+     */
+    final long time;
+
+    /**
+     * The dealer's verdict, completed by the dealer once the claim was checked.
+     */
+    final CompletableFuture<ClaimResult> result = new CompletableFuture<>();
+
+    Claim(int player, int[] slots, int[] cards, long version) {
+        this.player = player;
+        this.slots = slots;
+        this.cards = cards;
+        this.version = version;
+        this.time = System.nanoTime();
+    }
+}
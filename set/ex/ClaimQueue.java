@@ -0,0 +1,46 @@
+package bguspl.set.ex;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A lock-free queue of the claims waiting for the dealer. Any number of players may add claims, and the dealer
+ * drains them all at once in the order they were made.
+ */
+class ClaimQueue {
+
+    /**
+     * The pending claims, in arrival order.
+     */
+    private final Queue<Claim> claims = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Adds a claim to the queue (called by the players).
+     *
+     * @param claim - the claim.
+     */
+    void offer(Claim claim) {
+        claims.add(claim);
+    }
+
+    /**
+     * @return - true iff there are no pending claims.
+     */
+    boolean isEmpty() {
+        return claims.isEmpty();
+    }
+
+    /**
+     * Moves all the pending claims to the given list, ordered by the time they were made (called by the dealer).
+     *
+     * @param drained - the list to add the claims to.
+     */
+    void drainInOrder(List<Claim> drained) {
+        int from = drained.size();
+        for (Claim claim = claims.poll(); claim != null; claim = claims.poll())
+            drained.add(claim);
+        drained.subList(from, drained.size()).sort(Comparator.comparingLong(claim -> claim.time));
+    }
+}
@@ -0,0 +1,22 @@
+package bguspl.set.ex;
+
+/**
+ * The dealer's verdict on a claimed set.
+ */
+enum ClaimResult {
+
+    /**
+     * The claimed cards form a legal set: the player scores a point.
+     */
+    POINT,
+
+    /**
+     * The claimed cards do not form a legal set: the player is penalized.
+     */
+    PENALTY,
+
+    /**
+     * The claimed cards left the table before the claim was checked: the claim is ignored.
+     */
+    STALE
+}
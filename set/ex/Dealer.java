@@ -1,16 +1,15 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.TimerWheel;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
-import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This class manages the dealer's threads and data
@@ -29,9 +28,14 @@ public class Dealer implements Runnable {
     private final Player[] players;
 
     /**
-     * The list of card ids that are left in the dealer's deck.
+     * The card ids that are left in the dealer's deck.
      */
-    private final List<Integer> deck;
+    private final IntDeck deck;
+
+    /**
+     * The number of legal sets that can still be formed by the cards in play.
+     */
+    private final RemainingSetsTracker remainingSets;
 
     /**
      * True iff game should be terminated due to an external event.
@@ -44,24 +48,19 @@ public class Dealer implements Runnable {
     private long reshuffleTime = Long.MAX_VALUE;
     
     /**
-     * True if player notified the dealer that he has set for check
-     */
-    private volatile boolean isWoken=false;
-    
-    /**
-     * lock for sychronization between dealer and player who sent set for checking
+     * The claims the players made and the dealer did not check yet.
      */
-    private Object lock;
+    private final ClaimQueue claims = new ClaimQueue();
 
     /**
-     * The thread representing the dealer thread
+     * The claims drained from the queue in the current pass (reused between passes).
      */
-    public Thread dealerThread;
+    private final List<Claim> pendingClaims = new ArrayList<>();
 
     /**
-     * lock for sychronization between multiple players that sent set for checking
+     * The thread representing the dealer thread (null until the dealer starts running)
      */
-    private Object lockForSendingSetToCheck = new ReentrantLock(true);
+    public volatile Thread dealerThread;
 
     /**
      * True if dealer is changing cards
@@ -69,30 +68,39 @@ public class Dealer implements Runnable {
     private volatile boolean isChangingCards = false;
 
     /**
-     * The time the dealer's thread need to sleep until updating timer
+     * The resolution of the countdown display (whole seconds)
      */
-    private final long sleepUntilUpdateTimer = 900;
+    private final long displayTickMillis = 1000;
 
     /**
-     * The time the dealer's thread need to sleep until updating timer
+     * The resolution of the countdown display during the warning: one frame of the user interface, or 0 when there is
+     * no display to refresh
      */
-    private final long sleepUntilUpdateWarningTimer = 10;
+    private final long warningDisplayTickMillis;
 
         /**
      * The time the dealer's thread need to sleep until updating timer
      */
     Thread[] playersThreads;
 
-    private Object endLock=new Object();
+    /**
+     * The event loops running the players, or null if the players run on their own threads.
+     */
+    private PlayerEventLoops playerLoops;
+
+    /**
+     * Released when the dealer's thread finished terminating the players.
+     */
+    private final CountDownLatch finished = new CountDownLatch(1);
 
     public Dealer(Env env, Table table, Player[] players) {
         this.env = env;
         this.table = table;
         this.players = players;
-        deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
-        lock = new Object();
-        dealerThread=Thread.currentThread();
+        deck = new IntDeck(env.config.deckSize, env.config.deckSeed == -1 ? new Random() : new Random(env.config.deckSeed));
+        remainingSets = new RemainingSetsTracker(env);
         this.playersThreads = new Thread[players.length];
+        warningDisplayTickMillis = env.ui.frameMillis(); // refreshing faster than the frames would wake the dealer for nothing
     }
 
     /**
@@ -100,21 +108,37 @@ public class Dealer implements Runnable {
      */
     @Override
     public void run() {
-        synchronized(endLock){
+        dealerThread = Thread.currentThread();
         env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " starting.");
         isChangingCards = true;
-        for(int i=0;i<players.length;i++){
-            playersThreads[i] = new Thread(players[i],"player"+players[i].id);
-            playersThreads[i].start();
-       }
+        if(env.config.eventLoopPlayers){
+            playerLoops = new PlayerEventLoops(env);
+            for(Player player : players)
+                player.start(playerLoops);
+        }
+        else{
+            for(int i=0;i<players.length;i++){
+                playersThreads[i] = env.threads.newThread(players[i],"player"+players[i].id);
+                playersThreads[i].start();
+            }
+        }
     try{
-        while (!shouldFinish()) {
-            placeCardsOnTable();
-            isChangingCards = false;
-            updateTimerDisplay(true);
-            timerLoop();
-            isChangingCards = true;
-            removeAllCardsFromTable();
+        // a reshuffle removes and places the cards in a single table batch
+        table.beginBatch();
+        try{
+            while (!shouldFinish()) {
+                placeCardsOnTable();
+                table.commit();
+                isChangingCards = false;
+                updateTimerDisplay(true);
+                timerLoop();
+                isChangingCards = true;
+                table.beginBatch();
+                removeAllCardsFromTable();
+            }
+        }
+        finally{
+            table.commit(); // closes the open batch (and does nothing if an exception left none open)
         }
         if(terminate) throw new InterruptedException();
         isChangingCards = false;
@@ -123,33 +147,81 @@ public class Dealer implements Runnable {
     catch(InterruptedException e){}
     for(int i=players.length-1;i>=0;i--){
             players[i].terminate();
-            try{playersThreads[i].join();} catch(InterruptedException ignore){}
-            synchronized(players[i].getLock()){}
+            if(playersThreads[i]!=null)
+                try{playersThreads[i].join();} catch(InterruptedException ignore){}
         }
-        endLock.notifyAll();
+        if(playerLoops!=null) playerLoops.shutdown();
+        finished.countDown();
         env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " terminated.");
     }
-    }
 
     /**
-     * The inner loop of the dealer thread that runs as long as the countdown did not time out.
+     * The inner loop of the dealer thread that runs as long as the countdown did not time out and there is a legal set
+     * on the table. A table with no set is dealt again right away instead of waiting for the timeout.
      */
     private void timerLoop() {
-        while (!terminate && System.currentTimeMillis() < reshuffleTime) {
+        while (!terminate && System.currentTimeMillis() < reshuffleTime && table.setCount() > 0) {
             sleepUntilWokenOrTimeout();
             updateTimerDisplay(false);
-            int playerId = isLegalSetExist();
-            if(playerId!=-1){
-                isChangingCards = true;
-                removeCardsFromTable(playerId);
-                placeCardsOnTable();
-                updateTimerDisplay(true);
-                isChangingCards = false;
-                synchronized(lock){
-                lock.notify();
+            if(!claims.isEmpty()) handleClaims();
+        }
+    }
+
+    /**
+     * Drains all the pending claims and checks them in the order they were made. The cards of every legal set are
+     * removed as it is found, so later claims on the same cards become stale, and the table is refilled once. Whether
+     * the cards of each claim form a legal set does not depend on the table, so all the claims are verified up front
+     * in a single batch.
+     */
+    private void handleClaims() {
+        claims.drainInOrder(pendingClaims);
+        ClaimResult[] results = new ClaimResult[pendingClaims.size()];
+        int setSize = env.config.featureSize;
+        int[] claimedCards = new int[results.length * setSize];
+        for(int i=0;i<results.length;i++)
+            System.arraycopy(pendingClaims.get(i).cards, 0, claimedCards, i * setSize, setSize);
+        long[] legal = new long[(results.length + Long.SIZE - 1) / Long.SIZE];
+        env.util.testSets(claimedCards, results.length, legal);
+        boolean cardsRemoved = false;
+        long version = table.version();
+        table.beginBatch();
+        try{
+            for(int i=0;i<results.length;i++){
+                Claim claim = pendingClaims.get(i);
+                results[i] = checkClaim(claim, cardsRemoved ? -1 : version, (legal[i >>> 6] >>> i & 1) != 0);
+                if(results[i]==ClaimResult.POINT){
+                    isChangingCards = true;
+                    removeCardsFromTable(claim);
+                    cardsRemoved = true;
                 }
             }
+            if(cardsRemoved) placeCardsOnTable();
         }
+        finally{
+            table.commit();
+        }
+        if(cardsRemoved){
+            updateTimerDisplay(true);
+            isChangingCards = false;
+        }
+        for(int i=0;i<results.length;i++)
+            pendingClaims.get(i).result.complete(results[i]);
+        pendingClaims.clear();
+    }
+
+    /**
+     * Check if the cards of a claim are still in the claimed slots. A claim made at the current table version saw the
+     * current cards, so only claims made at other versions need their slots compared.
+     * @param version - the current table version, or -1 if cards were changed since it was read.
+     * @param legal   - true iff the claimed cards form a legal set.
+     */
+    private ClaimResult checkClaim(Claim claim, long version, boolean legal){
+        Integer[] slotToCard = table.slotToCard;
+        for(int i=0;i<claim.slots.length && claim.version!=version;i++){
+            Integer card = slotToCard[claim.slots[i]];
+            if(card==null || card!=claim.cards[i]) return ClaimResult.STALE;
+        }
+        return legal ? ClaimResult.POINT : ClaimResult.PENALTY;
     }
 
     /**
@@ -157,9 +229,12 @@ public class Dealer implements Runnable {
      */
     public void terminate() {
         terminate=true;
-        dealerThread.interrupt();
-        synchronized(endLock){
+        Thread dealer = dealerThread;
+        if(dealer!=null) dealer.interrupt(); // a dealer that did not start yet sees the flag when it does
+        try{
+            finished.await();
         }
+        catch(InterruptedException ignore){}
     }
 
     /**
@@ -168,25 +243,16 @@ public class Dealer implements Runnable {
      * @return true iff the game should be finished.
      */
     private boolean shouldFinish() {
-        return terminate || env.util.findSets(deck, 1).size() == 0;
+        return terminate || !remainingSets.anySetLeft();
     }
 
     /**
-     * Checks if any cards should be removed from the table and returns them to the deck.  
+     * Removes the cards of a legal set from the table, together with all the tokens placed on them.
      */
-    private void removeCardsFromTable(int playerId) {
-        Queue<Integer> tokens = players[playerId].getOriginTokenQueue();
-        for(int i=0;i<env.config.featureSize;i++){
-            int slot = tokens.remove();
-            table.removeCard(slot);
-            table.playersTokens[slot].remove((Integer)playerId);
-            LinkedList<Integer> ls = table.getPlayersTokens(slot);
-            if(ls!=null && ls.size()>0){
-                for(int pId: ls){
-                    players[pId].getOriginTokenQueue().remove(slot);
-                    table.playersTokens[slot].remove((Integer)pId);
-                }
-            }
+    private void removeCardsFromTable(Claim claim) {
+        for(int slot : claim.slots){
+            remainingSets.discard(table.slotToCard[slot]);
+            table.removeCard(slot); // also removes the tokens on the slot
         }
     }
 
@@ -196,39 +262,43 @@ public class Dealer implements Runnable {
      */
     void placeCardsOnTable() {
         Integer[] slotToCard = table.slotToCard;
-        final int size = env.config.deckSize;
-        int cardId;
-        int indexofC;
         for(int i=0;i<env.config.tableSize;i++){
-            if(slotToCard[i]==null && deck.size()!=0){
-                cardId = (int)(Math.random()*(size+1)); 
-                while(!deck.contains(cardId)){
-                    cardId = (int)(Math.random()*(size+1));
-                }
-                indexofC = deck.indexOf(cardId);
-                table.placeCard(deck.remove(indexofC), i);
+            if(slotToCard[i]==null && !deck.isEmpty()){
+                table.placeCard(deck.draw(), i);
             }
         }
     }
 
     /**
-     * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
+     * Sleep until the next event the dealer has to handle: a claim, the next change of the countdown display or the
+     * reshuffle deadline. Players wake the dealer by unparking it when they send a claim.
      */
-    private synchronized void sleepUntilWokenOrTimeout() {
-        if(this.reshuffleTime - System.currentTimeMillis()>env.config.turnTimeoutWarningMillis){
-            if(!isWoken){
-                try{
-                    this.wait(sleepUntilUpdateTimer);
-                }
-                catch(InterruptedException e){}
-            }
-        }
-        else{
-            try{
-                this.wait(sleepUntilUpdateWarningTimer);
-            }
-            catch(InterruptedException e){}
+    private void sleepUntilWokenOrTimeout() {
+        long deadline = nextDeadline();
+        Thread dealer = Thread.currentThread();
+        TimerWheel.Timeout wakeUp = env.timers.schedule(deadline - System.currentTimeMillis(), () -> LockSupport.unpark(dealer), env.logger);
+        while(claims.isEmpty() && !terminate && !wakeUp.isExpired()){
+            LockSupport.park(this);
+            Thread.interrupted(); // interrupts only signal termination, which is checked by the loop
         }
+        wakeUp.cancel();
+    }
+
+    /**
+     * Computes the time of the next change of the countdown display, capped by the reshuffle deadline.
+     */
+    private long nextDeadline() {
+        long now = System.currentTimeMillis();
+        long timeLeft = reshuffleTime - now;
+        if(timeLeft<=0) return now;
+        if(warningDisplayTickMillis==0) return reshuffleTime; // nothing displays the countdown
+        if(timeLeft<=env.config.turnTimeoutWarningMillis)
+            return now + Math.min(timeLeft, warningDisplayTickMillis);
+
+        // the display shows whole seconds, so it changes when the time left drops below the shown second
+        long nextTick = reshuffleTime - timeLeft / displayTickMillis * displayTickMillis + 1;
+        long warningStart = reshuffleTime - env.config.turnTimeoutWarningMillis;
+        return Math.min(nextTick, warningStart);
     }
 
     /**
@@ -251,17 +321,13 @@ public class Dealer implements Runnable {
      */
     void removeAllCardsFromTable() {
         Integer[] slotToCard = table.slotToCard;
-        for(Player p:players){
-            p.clearQueuewithoutTokens();
-        }
-
+        table.tokens.clear();
         env.ui.removeTokens();
         for(int i=0;i<slotToCard.length;i++){
             if (slotToCard[i]!=null){
                 deck.add(slotToCard[i]);
                 table.removeCard(i);
             }
-            table.playersTokens[i].clear();
         }
     }
 
@@ -295,70 +361,19 @@ public class Dealer implements Runnable {
     }
     
     /**
-     * Check if the set that the player sent is valid
-     */
-    private boolean isValidSet(int playerId){
-        // find the cards on the table
-        Integer[] slotToCard = table.slotToCard;
-        BlockingQueue<Integer> setQ = players[playerId].getTokenQueue(); 
-        if(setQ.size()==env.config.featureSize){
-            Integer[] set = {slotToCard[setQ.remove()],slotToCard[setQ.remove()],slotToCard[setQ.remove()]};
-            if(set[0]!=null & set[1]!=null & set[2]!=null){
-                int[] setI = {set[0],set[1],set[2]};
-                return env.util.testSet(setI);
-            }
-        }
-        return false;
-    } 
-
-    /**
-     * Check if any player has a set on the table (legal or ilegal)
-     */
-    private int isLegalSetExist(){
-        if(isWoken){
-            isWoken=false;
-            int playerId = -1;
-            long minLastTime = Long.MAX_VALUE;
-            for(int i=0;i<players.length;i++){
-                if(players[i].getLastTokenTime()!=-1 && minLastTime>players[i].getLastTokenTime()){
-                    minLastTime = players[i].getLastTokenTime();
-                    playerId = i;
-                }
-            }
-            if(playerId!=-1){
-                players[playerId].setLastTokenTime();
-                if(isValidSet(playerId)){
-                    players[playerId].setIsLegal();
-                    return playerId;
-                }
-            }
-            synchronized(lock){
-                lock.notify();
-            }
-        }
-        return -1;
-    }
-
-    /**
-     * used by player to notify dealer he needs to check his set 
+     * used by player to send a set for the dealer to check
      */
-    public void setIsWoken(){
-        isWoken = true;
-    }
-
-    public Object getLock(){
-        return this.lock;
+    void claim(Claim claim){
+        claims.offer(claim);
+        Thread dealer = dealerThread;
+        if(dealer!=null) LockSupport.unpark(dealer); // a dealer that did not start yet sees the claim when it does
     }
 
     public boolean getIsChangingCards(){
         return this.isChangingCards;
     }
 
-    public Object getLockForSendingSetToCheck(){
-        return lockForSendingSetToCheck;
-    }
-
-    public List <Integer> getDeck(){
+    public IntDeck getDeck(){
         return this.deck;
     }
 }
@@ -0,0 +1,96 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class caches the hints text of the table and prints it in the background (to the log while the terminal user
+ * interface owns the console).
+ *
+ * @inv renderedVersion == -1 || rendered is the hints text of the table at renderedVersion
+ */
+class HintCache {
+
+    /**
+     * The table the hints are about.
+     */
+    private final Table table;
+
+    /**
+     * The game environment.
+     */
+    private final Env env;
+
+    /**
+     * True iff the hints go to the log instead of the console.
+     */
+    private final boolean toLog;
+
+    /**
+     * The table version the cached text was rendered at (-1 if none).
+     */
+    private long renderedVersion = -1;
+
+    /**
+     * The cached hints text.
+     */
+    private String rendered;
+
+    /**
+     * True while a print of the hints is waiting for the publisher thread.
+     */
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    /**
+     * The thread printing the hints (so players never wait on console I/O).
+     */
+    private final ExecutorService publisher = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "hints");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    HintCache(Env env, Table table) {
+        this.env = env;
+        this.table = table;
+        this.toLog = env.ui.ownsConsole();
+    }
+
+    /**
+     * Prints the hints of the current table state in the background. Requests made while a print is still pending
+     * are coalesced into that print.
+     */
+    void publish() {
+        if (pending.compareAndSet(false, true))
+            publisher.execute(() -> {
+                pending.set(false);
+                if (toLog) env.logger.info(text().stripTrailing());
+                else System.out.print(text());
+            });
+    }
+
+    /**
+     * Returns the hints text of the current table state, rendering it only if the table changed since the last call
+     * (called by the publisher thread only, so it holds no lock while waiting for the dealer).
+     */
+    String text() {
+        int spins = 0;
+        while (true) {
+            long version = table.version();
+            if (version == renderedVersion) return rendered;
+            if ((version & 1) == 0) {
+                String text = table.renderHints();
+                // only keep the text if the table did not change while it was rendered
+                if (table.version() == version) {
+                    rendered = text;
+                    renderedVersion = version;
+                    return text;
+                }
+            }
+            else spins = table.awaitWrite(version, spins);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package bguspl.set.ex;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class holds the cards of the dealer's deck as primitive ids, with O(1) random draws and returns.
+ *
+ * @inv 0 <= size <= cards.length
+ * @inv position[cards[i]] == i for 0 <= i < size, and position[card] == -1 for cards not in the deck
+ */
+public class IntDeck {
+
+    /**
+     * The cards in the deck (only the first size entries are valid).
+     */
+    private final int[] cards;
+
+    /**
+     * Mapping between a card and its index in cards (-1 if not in the deck).
+     */
+    private final int[] position;
+
+    /**
+     * The number of cards in the deck.
+     */
+    private int size;
+
+    /**
+     * The random number generator used for drawing cards.
+     */
+    private final Random random;
+
+    /**
+     * Creates a full deck.
+     *
+     * @param deckSize - the total number of cards (all card ids 0 to deckSize - 1 are in the deck).
+     * @param random   - the random number generator used for drawing cards.
+     */
+    public IntDeck(int deckSize, Random random) {
+        this.cards = new int[deckSize];
+        this.position = new int[deckSize];
+        this.random = random;
+        for (int card = 0; card < deckSize; ++card) {
+            cards[card] = card;
+            position[card] = card;
+        }
+        this.size = deckSize;
+    }
+
+    /**
+     * @return - the number of cards in the deck.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return - true iff there are no cards in the deck.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param card - the card id.
+     * @return - true iff the card is in the deck.
+     */
+    public boolean contains(int card) {
+        return position[card] != -1;
+    }
+
+    /**
+     * Removes a uniformly random card from the deck.
+     *
+     * @return - the id of the card drawn.
+     * @pre - size > 0
+     * @post - size == @pre(size) - 1
+     */
+    public int draw() {
+        int card = cards[random.nextInt(size)];
+        remove(card);
+        return card;
+    }
+
+    /**
+     * Removes a specific card from the deck by moving the last card into its place.
+     *
+     * @param card - the card id.
+     * @return - true iff the card was in the deck.
+     */
+    public boolean remove(int card) {
+        int index = position[card];
+        if (index == -1) return false;
+        int last = cards[--size];
+        cards[index] = last;
+        position[last] = index;
+        position[card] = -1;
+        return true;
+    }
+
+    /**
+     * Returns a card to the deck.
+     *
+     * @param card - the card id.
+     * @return - true iff the card was not already in the deck.
+     */
+    public boolean add(int card) {
+        if (position[card] != -1) return false;
+        cards[size] = card;
+        position[card] = size++;
+        return true;
+    }
+
+    /**
+     * @return - a copy of the ids of the cards in the deck (in no particular order).
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(cards, size);
+    }
+}
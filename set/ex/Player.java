@@ -1,10 +1,16 @@
 package bguspl.set.ex;
 
 import java.util.logging.Level;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import bguspl.set.Env;
+import bguspl.set.IntRingBuffer;
 
 /**
  * This class manages the players' threads and data
@@ -14,6 +20,20 @@ import bguspl.set.Env;
  */
 public class Player implements Runnable {
 
+    /**
+     * The states of a player run by the event loop engine.
+     */
+    enum State {
+        /** No tokens on the table, handling key presses. */
+        IDLE,
+        /** Some tokens on the table, handling key presses. */
+        HOLDING_TOKENS,
+        /** Waiting for the dealer's verdict on a claim, key presses are buffered. */
+        CLAIM_PENDING,
+        /** Frozen after a point or a penalty, key presses are buffered and dropped at the end of the freeze. */
+        FROZEN
+    }
+
     /**
      * The game environment object.
      */
@@ -54,47 +74,64 @@ public class Player implements Runnable {
      */
     private int score;
 
+    private Dealer dealer;
+
     /**
-     * The slots of the player's tokens.
+     * The actions the player wants to do (slots he wants to place or remove token from).
      */
-    private BlockingQueue<Integer> tokens;
+    private final IntRingBuffer actionsQ;
 
     /**
-     * The time when the last token was placed.
+     * The number of key presses ignored because the cards were changing or the player was frozen.
      */
-    private long lastTokenTime;
+    private final AtomicLong ignoredPresses = new AtomicLong();
 
-    private Dealer dealer;
+    /**
+     * Guards the handshake between the AI thread and the player's thread (a lock rather than a monitor, so waiting
+     * does not pin the carrier of a virtual thread).
+     */
+    private final ReentrantLock aiLock = new ReentrantLock();
 
     /**
-     * The actions the player wants to do (slots he wants to place or remove token from).
+     * Signalled when the player's thread handled a key press of the AI thread.
      */
-    private BlockingQueue<Integer> actionsQ;
+    private final Condition pressHandledCondition = aiLock.newCondition();
 
     /**
-     * The number of actions the player can perform at the same time.
+     * True iff the player's thread handled the last key press of the AI thread and the AI thread did not notice yet.
      */
-    private final int numOfActions = 3;
+    private boolean pressHandled = false;
 
     /**
-     * True if the player's set is correct according to dealer check
+     * The interval between changes of the freeze countdown display, in milliseconds.
      */
-    private boolean isLegal=false;
-    
+    private final long freezeDisplayTickMillis = 1000;
+
     /**
-     * Lock for termination
+     * The event loops running the player, or null if the player runs on its own thread.
      */
-    private Object playerLock;
-    
+    private PlayerEventLoops loops;
+
+    /**
+     * The state of the player (event loop engine only, accessed by the player's loop only).
+     */
+    private State state = State.IDLE;
+
+    /**
+     * True iff a drain of the key presses was sent to the player's loop and did not start yet.
+     */
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
     /**
-     * True when non human player enter a key to the action queue
+     * The events of the player's loop, created once so sending them does not allocate.
      */
-    private volatile boolean isWaitingForAction = false;
+    private final Runnable drainEvent = this::drainPresses;
+    private final Runnable aiPressEvent = this::aiPress;
 
     /**
-     * The time the player's thread need to sleep until updating the freeze time
+     * The delay before an AI press retries after its key press was not accepted, in milliseconds.
      */
-    private final int sleepUntilUpdateFreezeTime = 500;
+    private final long aiRetryMillis = 10;
     
     /**
      * The class constructor.
@@ -111,10 +148,7 @@ public class Player implements Runnable {
         this.table = table;
         this.id = id;
         this.human = human;
-        this.tokens = new PriorityBlockingQueue<Integer>(env.config.featureSize);
-        this.lastTokenTime =-1;
-        this.actionsQ = new PriorityBlockingQueue<Integer>(numOfActions);
-        this.playerLock = new Object();
+        this.actionsQ = new IntRingBuffer(env.config.inputBufferSize, env.config.inputOverflowPolicy);
     }
 
     /**
@@ -122,74 +156,177 @@ public class Player implements Runnable {
      */
     @Override
     public void run() {
-        synchronized(playerLock){
-            playerThread = Thread.currentThread();
-            env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + "starting.");
-            if (!human) createArtificialIntelligence();
-            while (!terminate) {
-                boolean isChanged = false;
-                    try {
-                    int slot;
-                    if(!human && isWaitingForAction) {
-                        synchronized(this){
-                            slot = actionsQ.take();
-                            if(dealer.getIsChangingCards()){
-                                    actionsQ.clear();
-                                    slot=-1;
-                            }                    
-                            isChanged = playerPress(slot);
-                            isWaitingForAction = false;
-
-                            if(tokens.size() == env.config.featureSize && isChanged){
-                                threeTokensCheck();
-                            }
-                            this.notify();
-                        } 
-                    }
-                    else if(human){
-                        slot = actionsQ.take();
-                        isChanged = playerPress(slot);
-                        if(tokens.size() == env.config.featureSize && isChanged){
-                            threeTokensCheck();
-                        }
-                    }
-                }
-                catch(InterruptedException ignored){}
+        playerThread = Thread.currentThread();
+        env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + "starting.");
+        if (!human) createArtificialIntelligence();
+        while (!terminate) {
+            try {
+                int slot = actionsQ.take();
+                handlePress(slot);
+                if(!human) signalPressHandled();
             }
-            if (!human) {
-                aiThread.interrupt();
-                try { aiThread.join(); } catch (InterruptedException ignored) {}
-            }
-            env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " terminated.");
-            playerLock.notify();
+            catch(InterruptedException ignored){}
+        }
+        if (!human) {
+            aiThread.interrupt();
+            try { aiThread.join(); } catch (InterruptedException ignored) {}
         }
+        env.logger.log(Level.INFO, "Player " + id + " dropped " + actionsQ.dropped() + " key presses on a full buffer and ignored " + ignoredPresses.get() + ".");
+        env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " terminated.");
     }
 
-    private void threeTokensCheck(){    
-        boolean sizeStillLegal=false;
-        synchronized(dealer.getLockForSendingSetToCheck()){
-            synchronized(dealer.getLock()){
-                if(tokens.size()==env.config.featureSize){
-                    sizeStillLegal=true;
-                    lastTokenTime = System.currentTimeMillis();
-                    dealer.setIsWoken();
-                    synchronized(dealer){
-                        dealer.notify();
-                    }
-                    try{
-                        dealer.getLock().wait();
-                    }
-                    catch(InterruptedException e){}
-                }
+    /**
+     * Starts the player on the event loop engine instead of on its own thread.
+     *
+     * @param loops - the event loops running the players.
+     */
+    void start(PlayerEventLoops loops) {
+        this.loops = loops;
+        env.logger.log(Level.INFO, "Player " + id + " starting on an event loop.");
+        if (!human) loops.execute(id, aiPressEvent);
+    }
+
+    /**
+     * Handles the key presses buffered for the player while it is idle or holding tokens (event loop engine only).
+     */
+    private void drainPresses() {
+        drainScheduled.set(false); // before polling, so a press offered meanwhile sends another drain
+        while(!terminate && (state==State.IDLE || state==State.HOLDING_TOKENS)){
+            int slot = actionsQ.poll(-1);
+            if(slot==-1) return;
+            onPress(slot);
+            if(!human && (state==State.IDLE || state==State.HOLDING_TOKENS)) loops.execute(id, aiPressEvent);
+        }
+    }
+
+    /**
+     * Handles a key press of the player (event loop engine only). Completing a claim moves the player to
+     * CLAIM_PENDING until the dealer's verdict arrives as another event.
+     */
+    private void onPress(int slot) {
+        if(dealer.getIsChangingCards()){
+            ignoredPresses.addAndGet(1 + actionsQ.clear());
+            return;
+        }
+        boolean isChanged = playerPress(slot);
+        int tokens = table.tokens.count(id);
+        state = tokens==0 ? State.IDLE : State.HOLDING_TOKENS;
+        if(tokens == env.config.featureSize && isChanged){
+            Claim claim = claimSet();
+            if(claim!=null){
+                state = State.CLAIM_PENDING;
+                claim.result.whenComplete((result, error) ->
+                        loops.execute(id, () -> onVerdict(error==null ? result : ClaimResult.STALE)));
             }
-            dealer.getLockForSendingSetToCheck().notify();
         }
+    }
+
+    /**
+     * Handles the dealer's verdict on the player's claim (event loop engine only).
+     */
+    private void onVerdict(ClaimResult result) {
+        if(result==ClaimResult.POINT) point();
+        else if(result==ClaimResult.PENALTY) penalty();
+        else resume();
+    }
+
+    /**
+     * Returns to handling key presses after a verdict or a freeze (event loop engine only).
+     */
+    private void resume() {
+        state = table.tokens.count(id)==0 ? State.IDLE : State.HOLDING_TOKENS;
+        drainPresses();
+        if(!human) loops.execute(id, aiPressEvent);
+    }
+
+    /**
+     * Generates a key press of an AI (computer) player on its loop (event loop engine only). The next press is sent
+     * once this one is handled, or after a short delay if it was not accepted.
+     */
+    private void aiPress() {
+        if(terminate) return;
+        int slot = (int)(Math.random()*(env.config.tableSize));
+        if(!keyPressed(slot))
+            env.timers.schedule(aiRetryMillis, () -> loops.execute(id, aiPressEvent), env.logger);
+    }
+
+    /**
+     * Places or removes a token according to a key press, and claims a set when the player's tokens are complete.
+     * Presses taken while the dealer is changing cards are ignored, together with the ones buffered behind them.
+     */
+    private void handlePress(int slot) throws InterruptedException {
+        if(dealer.getIsChangingCards()){
+            ignoredPresses.addAndGet(1 + actionsQ.clear());
+            return;
+        }
+        boolean isChanged = playerPress(slot);
+        if(table.tokens.count(id) == env.config.featureSize && isChanged){
+            Claim claim = claimSet();
+            if(claim!=null) awaitVerdict(claim);
+        }
+    }
+
+    /**
+     * Tells the AI thread that its last key press was handled (including the verdict on a claim it completed).
+     */
+    private void signalPressHandled() {
+        aiLock.lock();
+        try {
+            pressHandled = true;
+            pressHandledCondition.signal();
+        } finally {
+            aiLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the player's thread handled the last key press of the AI thread, so the AI presses no faster than
+     * the player plays.
+     */
+    private void awaitPressHandled() throws InterruptedException {
+        aiLock.lock();
+        try {
+            while(!pressHandled)
+                pressHandledCondition.await();
+            pressHandled = false;
+        } finally {
+            aiLock.unlock();
+        }
+    }
+
+    /**
+     * Sends the cards under the player's tokens to the dealer without waiting for the verdict. The claim holds a
+     * snapshot of the slots and their cards, read without locking at a known table version, so the dealer can tell
+     * if the cards were replaced in the meantime.
+     *
+     * @return - the claim sent, or null if a token was cleared or one of the slots has no card.
+     */
+    private Claim claimSet() {
+        int[] claimedSlots = table.tokens.slotsOf(id);
+        if(claimedSlots.length != env.config.featureSize) return null;
+        int[] claimedCards = new int[claimedSlots.length];
+        long version = table.readSlots(claimedSlots, claimedCards);
+        for(int card : claimedCards)
+            if(card==-1) return null;
+
+        Claim claim = new Claim(id, claimedSlots, claimedCards, version);
+        dealer.claim(claim);
+        return claim;
+    }
 
-        if(isLegal&sizeStillLegal){ 
-            point(); 
-            isLegal=false;
+    /**
+     * Waits for the dealer to complete a claim, then awards a point or a penalty accordingly. Meanwhile, key presses
+     * keep being buffered in the actions queue.
+     */
+    private void awaitVerdict(Claim claim) throws InterruptedException {
+        ClaimResult result;
+        try {
+            result = claim.result.get();
+        } catch (ExecutionException e) {
+            return;
         }
-        else if(sizeStillLegal) penalty();
+        if(result==ClaimResult.POINT) point();
+        else if(result==ClaimResult.PENALTY) penalty();
     }
 
     /**
@@ -198,18 +335,18 @@ public class Player implements Runnable {
      */
     private void createArtificialIntelligence() {
         // note: this is a very very smart AI (!)
-        aiThread = new Thread(() -> {
+        aiThread = env.threads.newThread(() -> {
             env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " starting.");
             while (!terminate) {
                 try{
                     int tableSize = env.config.tableSize;
                     int slot = (int)(Math.random()*(tableSize));
                     if(keyPressed(slot)){
-                        synchronized (this) {
-                            isWaitingForAction = true;
-                            this.wait(); 
-                        }    
+                        awaitPressHandled();
+                        // virtual threads are never preempted: pause so the dealer gets the carrier between presses
+                        if(env.threads.isVirtual()) LockSupport.parkNanos(1000);
                     }
+                    else Thread.sleep(aiRetryMillis); // back off while the dealer changes cards or the buffer is full
                 }
                 catch(InterruptedException ignore){}
             }
@@ -223,7 +360,9 @@ public class Player implements Runnable {
      */
     public void terminate() {
         this.terminate = true;
-        playerThread.interrupt();
+        if(playerThread!=null) playerThread.interrupt();
+        if(loops!=null)
+            env.logger.log(Level.INFO, "Player " + id + " dropped " + actionsQ.dropped() + " key presses on a full buffer and ignored " + ignoredPresses.get() + ".");
     }
 
     /**
@@ -235,15 +374,18 @@ public class Player implements Runnable {
      */
     public boolean keyPressed(int slot) {
         if(dealer.getIsChangingCards()){
-            actionsQ.clear();
+            ignoredPresses.incrementAndGet(); // the player's thread drops the buffered presses itself
             return false;
         }
 
         else{
             try{
-                actionsQ.put(slot);
+                if(!actionsQ.offer(slot)) return false;
+            }
+            catch(InterruptedException ignore){
+                return false;
             }
-            catch(InterruptedException ignore){}
+            if(loops!=null && drainScheduled.compareAndSet(false, true)) loops.execute(id, drainEvent);
             return true;
         }
     }
@@ -267,44 +409,56 @@ public class Player implements Runnable {
         freeze(env.config.penaltyFreezeMillis);
     }
 
+    /**
+     * Freezes the player: the countdown display and the end of the freeze are timeouts on the shared timer wheel, and
+     * the player's thread waits until the last one releases it. On the event loop engine the player moves to FROZEN
+     * instead, and the end of the freeze is an event on its loop.
+     *
+     * @param freezeTime - the duration of the freeze in milliseconds.
+     */
     private void freeze(long freezeTime){
-        long time = System.currentTimeMillis(); 
-        while(freezeTime>0){
-            long x = System.currentTimeMillis()-time;
-            freezeTime = freezeTime-x;
-            env.ui.setFreeze(id,freezeTime);
-            time = System.currentTimeMillis();
-            try{
-                Thread.sleep(sleepUntilUpdateFreezeTime);
-            }
-            catch(InterruptedException e){}    
+        long freezeEnd = System.currentTimeMillis()+freezeTime;
+        env.ui.setFreeze(id,freezeTime);
+        if(loops!=null){
+            state = State.FROZEN;
+            scheduleFreezeTick(freezeEnd,() -> loops.execute(id,this::unfreeze));
+            return;
         }
-        this.actionsQ.clear();
-    }
-
-    public BlockingQueue<Integer> getTokenQueue(){
-        return new PriorityBlockingQueue<Integer>(tokens);
-    }
-
-    public BlockingQueue<Integer> getOriginTokenQueue(){
-        return this.tokens;
-    }
 
-    public long getLastTokenTime(){
-        return lastTokenTime;
+        CountDownLatch unfrozen = new CountDownLatch(1);
+        scheduleFreezeTick(freezeEnd,unfrozen::countDown);
+        try{
+            unfrozen.await();
+        }
+        catch(InterruptedException e){} // interrupts only signal termination
+        ignoredPresses.addAndGet(actionsQ.clear());
     }
 
-    public void setLastTokenTime(){
-        lastTokenTime = -1;
+    /**
+     * Ends a freeze on the event loop engine, dropping the key presses buffered during the claim and the freeze.
+     */
+    private void unfreeze(){
+        ignoredPresses.addAndGet(actionsQ.clear());
+        resume();
     }
 
     /**
-     * clear all player's tokens queue
-     *
-     * @post - tokens.size = 0
+     * Schedules the next change of the freeze countdown display (the display shows whole seconds), or the end of the
+     * freeze.
      */
-    public void clearQueuewithoutTokens(){
-        tokens.clear();
+    private void scheduleFreezeTick(long freezeEnd,Runnable unfrozen){
+        long timeLeft = freezeEnd-System.currentTimeMillis();
+        long delay = timeLeft%freezeDisplayTickMillis==0 ? freezeDisplayTickMillis : timeLeft%freezeDisplayTickMillis;
+        env.timers.schedule(Math.min(delay,timeLeft),() -> {
+            long left = freezeEnd-System.currentTimeMillis();
+            try{
+                env.ui.setFreeze(id,Math.max(left,0));
+            }
+            finally{ // a failing display must not keep the player frozen
+                if(left<=0) unfrozen.run();
+                else scheduleFreezeTick(freezeEnd,unfrozen);
+            }
+        },env.logger);
     }
 
     /**
@@ -313,34 +467,12 @@ public class Player implements Runnable {
      * @post - actionsQ.size == @pre(actionsQ.size) + 1 .
      */
     private boolean playerPress(int slot){
-        if(slot!=-1 && tokens.contains(slot)){
-            if(table.removeToken(this.id, slot)){
-                tokens.remove(slot);
-                table.playersTokens[slot].remove((Integer)id);
-                return true;
-            }
-        }
-
-        else if(slot!=-1 && tokens.size()<env.config.featureSize){
-            if(table.placeToken(this.id, slot)){
-                try{ tokens.put(slot);}
-                catch(InterruptedException ignore){}
-                table.playersTokens[slot].add((Integer)id);
-                return true;
-            }
-        }
-        return false;
-    }
-
-    public void setIsLegal(){
-        this.isLegal=true;
-    }
-
-    public Object getLock(){
-        return playerLock;
+        if(slot==-1) return false;
+        if(table.tokens.has(id, slot)) return table.removeToken(this.id, slot);
+        return table.tokens.count(id)<env.config.featureSize && table.placeToken(this.id, slot);
     }
 
-    public BlockingQueue<Integer> getActionsQueue(){
+    public IntRingBuffer getActionsQueue(){
         return this.actionsQ;
     }
 
@@ -0,0 +1,78 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * A fixed pool of single-threaded event loops running the players of the event loop engine. Each player is pinned to
+ * one loop, so all of its events run in order on the same thread and its state needs no locking. The loop threads are
+ * created by the game thread factory, so they follow the ThreadMode configuration.
+ */
+class PlayerEventLoops {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * The event loops (one per core, but no more than the players).
+     */
+    private final ExecutorService[] loops;
+
+    PlayerEventLoops(Env env) {
+        this.env = env;
+        int count = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), env.config.players));
+        this.loops = new ExecutorService[count];
+        boolean virtual = env.threads.isVirtual();
+        for (int i = 0; i < count; ++i) {
+            String name = "player-loop-" + i;
+            loops[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+                Thread thread = env.threads.newThread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            }) {
+                @Override
+                protected void afterExecute(Runnable event, Throwable error) {
+                    // a virtual thread is never preempted, and a yield may resume it right away, so a loop that
+                    // always has events would starve the dealer of its carrier: park briefly to let it run
+                    if (virtual) LockSupport.parkNanos(1000);
+                }
+            };
+        }
+        env.logger.log(Level.INFO, "Running " + env.config.players + " players on " + count + " event loops.");
+    }
+
+    /**
+     * Runs an event of a player on the player's loop (events sent after the shutdown are dropped).
+     *
+     * @param player - the id of the player.
+     * @param event  - the event to run.
+     */
+    void execute(int player, Runnable event) {
+        try {
+            loops[player % loops.length].execute(event);
+        } catch (RejectedExecutionException ignored) {}
+    }
+
+    /**
+     * Stops all the loops, dropping the events not started yet, and waits up to a second in total for the running
+     * events to finish.
+     */
+    void shutdown() {
+        for (ExecutorService loop : loops)
+            loop.shutdownNow();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        try {
+            for (ExecutorService loop : loops)
+                if (!loop.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) break;
+        } catch (InterruptedException ignored) {}
+    }
+}
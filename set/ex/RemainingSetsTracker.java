@@ -0,0 +1,154 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps count of the legal sets that can still be formed by the cards in play (in the deck or on the
+ * table), so the end of the game can be detected without searching the deck.
+ *
+ * @inv liveSets == the number of legal sets none of whose cards were discarded
+ */
+class RemainingSetsTracker {
+
+    /**
+     * Above this number of sets in the full deck, the sets of a card are completed when it is discarded instead of
+     * being precomputed (e.g. the 8 features variant has over 7 million sets).
+     */
+    private static final int maxPrecomputedSets = 1 << 20;
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * True iff the card was discarded from the game (i.e. it is neither in the deck nor on the table).
+     */
+    private final boolean[] discarded;
+
+    /**
+     * The ids of the sets each card belongs to: the sets of card c are setIds[setsOffset[c] .. setsOffset[c + 1]).
+     * Null when the sets are completed on discard.
+     */
+    private final int[] setsOffset;
+    private final int[] setIds;
+
+    /**
+     * True iff the set with the respective id still has all of its cards in play.
+     */
+    private final boolean[] liveSet;
+
+    /**
+     * The number of sets that still have all of their cards in play.
+     */
+    private long liveSets;
+
+    /**
+     * Scratch arrays for completing the sets of a discarded card.
+     */
+    private final int[] combination;
+    private final int[] partial;
+
+    RemainingSetsTracker(Env env) {
+        this.env = env;
+        this.discarded = new boolean[env.config.deckSize];
+        this.combination = new int[Math.max(0, env.config.featureSize - 2)];
+        this.partial = new int[Math.max(0, env.config.featureSize - 1)];
+
+        int[] deck = new int[env.config.deckSize];
+        Arrays.setAll(deck, i -> i);
+        long[] sets = new long[1];
+        env.util.findSets(deck, deck.length, Integer.MAX_VALUE, set -> ++sets[0] > 0);
+        liveSets = sets[0];
+
+        if (env.config.featureSize < 3 || liveSets <= maxPrecomputedSets) {
+            setsOffset = new int[env.config.deckSize + 1];
+            setIds = new int[(int) liveSets * env.config.featureSize];
+            liveSet = new boolean[(int) liveSets];
+            Arrays.fill(liveSet, true);
+            indexSets(deck);
+        } else {
+            setsOffset = null;
+            setIds = null;
+            liveSet = null;
+        }
+    }
+
+    /**
+     * Builds the per card set lists in two passes: counting the sets of each card, then filling them in.
+     */
+    private void indexSets(int[] deck) {
+        int[] next = new int[env.config.deckSize];
+        env.util.findSets(deck, deck.length, Integer.MAX_VALUE, set -> {
+            for (int card : set) ++setsOffset[card + 1];
+            return true;
+        });
+        for (int card = 0; card < env.config.deckSize; ++card) {
+            setsOffset[card + 1] += setsOffset[card];
+            next[card] = setsOffset[card];
+        }
+        int[] id = new int[1];
+        env.util.findSets(deck, deck.length, Integer.MAX_VALUE, set -> {
+            for (int card : set) setIds[next[card]++] = id[0];
+            ++id[0];
+            return true;
+        });
+    }
+
+    /**
+     * Removes a card from the game (e.g. after it was part of a legal set that was claimed).
+     *
+     * @param card - the card that is no longer in play.
+     */
+    void discard(int card) {
+        if (discarded[card]) return;
+        if (setsOffset != null) {
+            for (int i = setsOffset[card]; i < setsOffset[card + 1]; ++i)
+                if (liveSet[setIds[i]]) {
+                    liveSet[setIds[i]] = false;
+                    --liveSets;
+                }
+        } else
+            discardByCompletion(card);
+        discarded[card] = true;
+    }
+
+    /**
+     * Completes every combination of the card with other cards in play, and counts each completed set once (only
+     * when its completing card comes after the whole combination).
+     */
+    private void discardByCompletion(int card) {
+        int k = combination.length;
+        int n = env.config.deckSize;
+        for (int i = 0; i < k; ++i)
+            combination[i] = i;
+
+        while (combination[k - 1] < n) {
+            boolean inPlay = true;
+            for (int i = 0; i < k && inPlay; ++i) {
+                partial[i] = combination[i];
+                inPlay = combination[i] != card && !discarded[combination[i]];
+            }
+            if (inPlay) {
+                partial[k] = card;
+                int last = env.util.completeSet(partial);
+                if (last > combination[k - 1] && last != card && !discarded[last]) --liveSets;
+            }
+
+            // generate next combination in lexicographic order
+            int t = k - 1;
+            while (t != 0 && combination[t] == n - k + t) --t;
+            combination[t]++;
+            for (int i = t + 1; i < k; i++) combination[i] = combination[i - 1] + 1;
+        }
+    }
+
+    /**
+     * @return - true iff at least one legal set can still be formed by the cards in play.
+     */
+    boolean anySetLeft() {
+        return liveSets > 0;
+    }
+}
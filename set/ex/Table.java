@@ -2,14 +2,18 @@ package bguspl.set.ex;
 
 import bguspl.set.Env;
 
+import java.lang.invoke.VarHandle;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Objects;
 import java.util.stream.Collectors;
 
 /**
  * This class contains the data that is visible to the player.
+ * <p>
+ * Cards are placed and removed by a single writer, the dealer thread. The dealer may group card changes in a batch
+ * with a deferred flush: each change is applied to the model right away (seqlock readers retry until the batch
+ * commits, but direct reads of slotToCard see it at once), while the table delay and the user interface update are
+ * deferred to the commit. A batch is therefore not atomic for the user interface, which shows it only once committed.
  *
  * @inv slotToCard[x] == y iff cardToSlot[y] == x
  */
@@ -31,9 +35,61 @@ public class Table {
     protected final Integer[] cardToSlot; // slot per card (if any)
 
     /**
-     * Mapping between a slot and players that have tokens on each slot.
+     * The tokens of the players on the slots.
      */
-    protected LinkedList<Integer> [] playersTokens; 
+    protected final TokenMatrix tokens;
+
+    /**
+     * The legal sets formed by the cards currently on the table.
+     */
+    private final TableSetIndex setIndex;
+
+    /**
+     * The hints text of the table, rendered once per table version.
+     */
+    private final HintCache hintCache;
+
+    /**
+     * The table version, a seqlock advanced by the dealer around every change of cards: odd while cards are being
+     * placed or removed, and even when the table is stable.
+     */
+    private volatile long version;
+
+    /**
+     * The number of times a reader spins on an odd version before blocking until the write ends.
+     */
+    private static final int WRITE_SPINS = 100;
+
+    /**
+     * The monitor blocked readers wait on until the write ends.
+     */
+    private final Object writeEnded = new Object();
+
+    /**
+     * The number of readers blocked on writeEnded (changed under its monitor).
+     */
+    private volatile int blockedReaders;
+
+    /**
+     * The nesting depth of the current batch of card changes (0 if not in a batch). Like the other batch fields, it is
+     * accessed by the dealer thread only.
+     */
+    private int batchDepth;
+
+    /**
+     * True iff the slot changed in the current batch.
+     */
+    private final boolean[] batchChanged;
+
+    /**
+     * The number of slots changed in the current batch.
+     */
+    private int batchChanges;
+
+    /**
+     * The thread that started the current batch (checked when assertions are enabled).
+     */
+    private Thread batchWriter;
 
     /**
      * Constructor for testing.
@@ -47,10 +103,10 @@ public class Table {
         this.env = env;
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
-        this.playersTokens = (LinkedList<Integer>[]) new LinkedList<?>[env.config.tableSize];
-        for (int i=0; i<env.config.tableSize; i++){
-            this.playersTokens[i] = new LinkedList<Integer>();
-        }
+        this.tokens = new TokenMatrix(env.config.players, env.config.tableSize);
+        this.setIndex = new TableSetIndex(env, slotToCard, cardToSlot);
+        this.hintCache = new HintCache(env, this);
+        this.batchChanged = new boolean[slotToCard.length];
     }
 
     /**
@@ -65,15 +121,129 @@ public class Table {
 
     /**
      * This method prints all possible legal sets of cards that are currently on the table.
+     * The text is rendered once per table version and printed in the background.
      */
     public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
-            StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
+        hintCache.publish();
+    }
+
+    /**
+     * Renders the hints text of all the legal sets currently on the table.
+     *
+     * @return - one hint line per legal set.
+     */
+    String renderHints() {
+        StringBuilder sb = new StringBuilder();
+        setIndex.sets().forEach(set -> {
+            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).collect(Collectors.toList());
+            if (slots.contains(null)) return; // the set was removed from the table while rendering
+            slots.sort(null);
             int[][] features = env.util.cardsToFeatures(set);
-            System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
+            sb.append("Hint: Set found: ").append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)).append(System.lineSeparator());
         });
+        return sb.toString();
+    }
+
+    /**
+     * Returns the version of the table, which advances whenever a card is placed or removed.
+     *
+     * @return - the current table version (odd while cards are being changed).
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Reads the cards in the given slots without locking, retrying until no card was changed during the read.
+     *
+     * @param slots - the slots to read.
+     * @param cards - the array to fill with the card in the respective slot (-1 if none).
+     * @return - the (even) table version the cards were read at.
+     */
+    public long readSlots(int[] slots, int[] cards) {
+        int spins = 0;
+        while (true) {
+            long before = version;
+            if ((before & 1) == 0) {
+                for (int i = 0; i < slots.length; ++i) {
+                    Integer card = slotToCard[slots[i]];
+                    cards[i] = card == null ? -1 : card;
+                }
+                VarHandle.acquireFence(); // keep the card reads before the version check
+                if (version == before) return before;
+            }
+            else spins = awaitWrite(before, spins);
+        }
+    }
+
+    /**
+     * Waits for the write in progress at an odd version to end. Short writes are waited out by spinning, and a reader
+     * still waiting after WRITE_SPINS spins blocks until the dealer ends the write (a reshuffle can take a while).
+     *
+     * @param version - the odd version read.
+     * @param spins   - the number of times the caller spun on this write so far.
+     * @return - the updated number of spins.
+     */
+    int awaitWrite(long version, int spins) {
+        if (spins < WRITE_SPINS) {
+            Thread.onSpinWait();
+            return spins + 1;
+        }
+        synchronized (writeEnded) {
+            ++blockedReaders;
+            try {
+                // the dealer reads blockedReaders after changing the version, so one of the two sees the other
+                while (this.version == version) writeEnded.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                --blockedReaders;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Starts changing cards (called by the dealer thread only): makes the version odd.
+     */
+    private void beginWrite() {
+        version = version + 1;
+        VarHandle.storeStoreFence(); // keep the card writes after the version change
+    }
+
+    /**
+     * Ends changing cards (called by the dealer thread only): makes the version even again.
+     */
+    private void endWrite() {
+        version = version + 1;
+        if (blockedReaders > 0)
+            synchronized (writeEnded) {
+                writeEnded.notifyAll();
+            }
+    }
+
+    /**
+     * Enters the write section before changing a card, unless the current batch already entered it. An empty batch
+     * therefore leaves the version unchanged.
+     */
+    private void beginChange() {
+        if ((version & 1) == 0) beginWrite();
+    }
+
+    /**
+     * Leaves the write section after changing a card, unless in a batch (which leaves it on commit).
+     */
+    private void endChange() {
+        if (batchDepth == 0) endWrite();
+    }
+
+    /**
+     * Count the legal sets currently on the table (without searching for them).
+     *
+     * @return - the number of legal sets on the table.
+     */
+    public int setCount() {
+        return setIndex.setCount();
     }
 
     /**
@@ -89,6 +259,54 @@ public class Table {
         return cards;
     }
 
+    /**
+     * Starts a batch of card changes with a deferred flush (called by the dealer thread only). Until the matching
+     * commit, placed and removed cards are applied to the table right away, but the table delay and the user
+     * interface update are deferred to the commit. Batches may nest, in which case only the outermost commit takes
+     * effect. Callers commit in a finally block, so the version is never left odd.
+     */
+    public void beginBatch() {
+        if (batchDepth++ == 0) batchWriter = Thread.currentThread();
+        assert batchWriter == Thread.currentThread() : "table batches are written by the dealer thread only";
+    }
+
+    /**
+     * Ends a batch of card changes (called by the dealer thread only): waits the table delay once and sends the
+     * changed slots to the user interface in a single update.
+     */
+    public void commit() {
+        assert batchDepth == 0 || batchWriter == Thread.currentThread() : "table batches are written by the dealer thread only";
+        if (batchDepth == 0 || --batchDepth > 0) return;
+        batchWriter = null;
+        if ((version & 1) != 0) endWrite();
+        if (batchChanges == 0) return;
+
+        try {
+            Thread.sleep(env.config.tableDelayMillis);
+        } catch (InterruptedException ignored) {}
+
+        int[] slots = new int[batchChanges];
+        int[] cards = new int[batchChanges];
+        for (int slot = 0, i = 0; slot < batchChanged.length; ++slot)
+            if (batchChanged[slot]) {
+                batchChanged[slot] = false;
+                slots[i] = slot;
+                cards[i++] = slotToCard[slot] == null ? -1 : slotToCard[slot];
+            }
+        batchChanges = 0;
+        env.ui.updateCards(slots, cards);
+    }
+
+    /**
+     * Records a changed slot of the current batch.
+     */
+    private void batchChange(int slot) {
+        if (!batchChanged[slot]) {
+            batchChanged[slot] = true;
+            ++batchChanges;
+        }
+    }
+
     /**
      * Places a card on the table in a grid slot.
      * @param card - the card id to place in the slot.
@@ -98,14 +316,23 @@ public class Table {
      */
 
     public void placeCard(int card, int slot) {
-        try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {}
+        if (batchDepth == 0) {
+            try {
+                Thread.sleep(env.config.tableDelayMillis);
+            } catch (InterruptedException ignored) {}
+        }
 
-        cardToSlot[card] = slot;
-        slotToCard[slot] = card;
+        beginChange();
+        try {
+            cardToSlot[card] = slot;
+            slotToCard[slot] = card;
+            setIndex.cardPlaced(card);
+        } finally {
+            endChange();
+        }
 
-        env.ui.placeCard(card, slot);
+        if (batchDepth > 0) batchChange(slot);
+        else env.ui.placeCard(card, slot);
     }
 
     /**
@@ -114,15 +341,28 @@ public class Table {
      * @post 
      */
     public void removeCard(int slot) {
+        if (batchDepth == 0) {
+            try {
+                Thread.sleep(env.config.tableDelayMillis);
+            } catch (InterruptedException ignored) {}
+        }
+
+        beginChange();
         try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {}
+            int card = slotToCard[slot];
+            cardToSlot[card] = null;
+            slotToCard[slot] = null;
+            tokens.clearSlot(slot);
+            setIndex.cardRemoved(card);
+        } finally {
+            endChange();
+        }
 
-        int card = slotToCard[slot];
-        cardToSlot[card] = null;
-        slotToCard[slot] = null;
-        env.ui.removeTokens(slot);
-        env.ui.removeCard(slot);
+        if (batchDepth > 0) batchChange(slot);
+        else {
+            env.ui.removeTokens(slot);
+            env.ui.removeCard(slot);
+        }
     }
 
     /**
@@ -132,7 +372,9 @@ public class Table {
      * @return - true if the token was placed, otherwise false
      */
     public boolean placeToken(int player, int slot) {
-        if(slotToCard[slot]!=null){
+        // the epoch is read before the card, so a card removed after the check fails the placement
+        int epoch = tokens.epoch(slot);
+        if(slotToCard[slot]!=null && tokens.place(player, slot, epoch)){
             env.ui.placeToken(player, slot);
             return true;
         }
@@ -146,14 +388,10 @@ public class Table {
      * @return       - true if a token was successfully removed.
      */
     public boolean removeToken(int player, int slot) {
-        if(slotToCard[slot]!=null){
+        if(tokens.remove(player, slot)){
             env.ui.removeToken(player, slot);
             return true;
         }
         return false;
     }
-
-    public LinkedList<Integer> getPlayersTokens(int slot){
-        return new LinkedList<Integer>(playersTokens[slot]);
-    }
 }
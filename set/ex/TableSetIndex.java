@@ -0,0 +1,148 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class keeps track of the legal sets formed by the cards currently on the table.
+ *
+ * @inv setCount == the number of legal sets among the cards in slotToCard
+ */
+class TableSetIndex {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * The table's mapping between a slot and the card placed in it (null if none).
+     */
+    private final Integer[] slotToCard;
+
+    /**
+     * The table's mapping between a card and the slot it is in (null if none).
+     */
+    private final Integer[] cardToSlot;
+
+    /**
+     * The legal sets currently on the table (sorted card ids).
+     */
+    private final List<int[]> sets = new ArrayList<>();
+
+    /**
+     * The number of legal sets currently on the table.
+     */
+    private volatile int setCount;
+
+    /**
+     * Scratch arrays for completing the combinations that include a newly placed card.
+     */
+    private final int[] combination;
+    private final int[] partial;
+
+    TableSetIndex(Env env, Integer[] slotToCard, Integer[] cardToSlot) {
+        this.env = env;
+        this.slotToCard = slotToCard;
+        this.cardToSlot = cardToSlot;
+        this.combination = new int[Math.max(0, env.config.featureSize - 2)];
+        this.partial = new int[Math.max(0, env.config.featureSize - 1)];
+        rebuild();
+    }
+
+    /**
+     * Adds the sets formed by a card that was just placed on the table. Only the combinations of the other cards
+     * with the new card are completed, so a placement costs O(n) for the classic game.
+     *
+     * @param card - the card that was placed (already in slotToCard and cardToSlot).
+     */
+    synchronized void cardPlaced(int card) {
+        int k = env.config.featureSize - 2;
+        if (k < 1) {
+            rebuild();
+            return;
+        }
+
+        int slots = slotToCard.length;
+        int[] slot = combination;
+        for (int i = 0; i < k; ++i)
+            slot[i] = i;
+
+        while (slot[k - 1] < slots) {
+            if (fillPartial(card)) {
+                // count each set once: only when its completing card is after all the combination's slots
+                int last = env.util.completeSet(partial);
+                if (last >= 0 && cardToSlot[last] != null && cardToSlot[last] > slot[k - 1]) {
+                    int[] set = Arrays.copyOf(partial, k + 2);
+                    set[k + 1] = last;
+                    Arrays.sort(set);
+                    sets.add(set);
+                }
+            }
+
+            // generate next combination of slots in lexicographic order
+            int t = k - 1;
+            while (t != 0 && slot[t] == slots - k + t) --t;
+            slot[t]++;
+            for (int i = t + 1; i < k; i++) slot[i] = slot[i - 1] + 1;
+        }
+        setCount = sets.size();
+    }
+
+    /**
+     * Fills the partial set with the new card and the cards in the slots of the current combination.
+     *
+     * @return - true iff all the combination's slots hold cards other than the new card.
+     */
+    private boolean fillPartial(int card) {
+        int k = combination.length;
+        for (int i = 0; i < k; ++i) {
+            Integer other = slotToCard[combination[i]];
+            if (other == null || other == card) return false;
+            partial[i] = other;
+        }
+        partial[k] = card;
+        return true;
+    }
+
+    /**
+     * Drops the sets that contained a card that was just removed from the table.
+     *
+     * @param card - the card that was removed.
+     */
+    synchronized void cardRemoved(int card) {
+        sets.removeIf(set -> contains(set, card));
+        setCount = sets.size();
+    }
+
+    /**
+     * Recomputes the index from scratch (used for tables created with cards already on them).
+     */
+    synchronized void rebuild() {
+        sets.clear();
+        int[] cards = Arrays.stream(slotToCard).filter(Objects::nonNull).mapToInt(Integer::intValue).toArray();
+        env.util.findSets(cards, cards.length, Integer.MAX_VALUE, set -> sets.add(set.clone()));
+        setCount = sets.size();
+    }
+
+    private static boolean contains(int[] set, int card) {
+        for (int c : set)
+            if (c == card) return true;
+        return false;
+    }
+
+    int setCount() {
+        return setCount;
+    }
+
+    synchronized List<int[]> sets() {
+        List<int[]> copy = new ArrayList<>(sets.size());
+        for (int[] set : sets)
+            copy.add(set.clone());
+        return copy;
+    }
+}
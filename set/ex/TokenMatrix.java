@@ -0,0 +1,173 @@
+package bguspl.set.ex;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * This class holds the tokens of all the players on the table as two bit matrices: the slots of each player, and the
+ * players on each slot. Reads are lock-free; changes to the tokens of a slot update both matrices under the slot's
+ * lock, so clearing a slot never misses a token placed on it concurrently.
+ *
+ * @inv the bit of a slot in the row of a player is set iff the bit of the player in the row of the slot is set
+ *      (outside the lock of the slot)
+ */
+class TokenMatrix {
+
+    /**
+     * Atomic access to the words of the matrices.
+     */
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /**
+     * Atomic access to the epochs of the slots.
+     */
+    private static final VarHandle EPOCHS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /**
+     * The number of slots on the table.
+     */
+    private final int slots;
+
+    /**
+     * The number of words in the row of a player (one bit per slot).
+     */
+    private final int slotWords;
+
+    /**
+     * The number of words in the row of a slot (one bit per player).
+     */
+    private final int playerWords;
+
+    /**
+     * The slots of each player's tokens: bit s of row p is set iff player p has a token on slot s.
+     */
+    private final long[] playerSlots;
+
+    /**
+     * The players with a token on each slot: bit p of row s is set iff player p has a token on slot s.
+     */
+    private final long[] slotPlayers;
+
+    /**
+     * The number of times each slot was cleared (changed only under the lock of the slot).
+     */
+    private final int[] epochs;
+
+    /**
+     * The lock of each slot.
+     */
+    private final Object[] locks;
+
+    /**
+     * @param players - the number of players.
+     * @param slots   - the number of slots on the table.
+     */
+    TokenMatrix(int players, int slots) {
+        this.slots = slots;
+        this.slotWords = (slots + 63) >>> 6;
+        this.playerWords = (players + 63) >>> 6;
+        this.playerSlots = new long[players * slotWords];
+        this.slotPlayers = new long[slots * playerWords];
+        this.epochs = new int[slots];
+        this.locks = new Object[slots];
+        for (int slot = 0; slot < slots; ++slot)
+            locks[slot] = new Object();
+    }
+
+    /**
+     * @return - the epoch of the slot, to be passed to place after checking that the slot holds a card.
+     */
+    int epoch(int slot) {
+        return (int) EPOCHS.getVolatile(epochs, slot);
+    }
+
+    /**
+     * Places a token of a player on a slot, unless the slot was cleared since the given epoch (so its card may have
+     * been removed or replaced after the caller checked it).
+     *
+     * @return - true iff the slot was not cleared since the epoch and the player had no token on it.
+     */
+    boolean place(int player, int slot, int epoch) {
+        long bit = 1L << slot;
+        synchronized (locks[slot]) {
+            if (epochs[slot] != epoch) return false;
+            long old = (long) WORDS.getAndBitwiseOr(playerSlots, player * slotWords + (slot >>> 6), bit);
+            if ((old & bit) != 0) return false;
+            WORDS.getAndBitwiseOr(slotPlayers, slot * playerWords + (player >>> 6), 1L << player);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a token of a player from a slot.
+     *
+     * @return - true iff the player had a token on the slot.
+     */
+    boolean remove(int player, int slot) {
+        long bit = 1L << slot;
+        synchronized (locks[slot]) {
+            long old = (long) WORDS.getAndBitwiseAnd(playerSlots, player * slotWords + (slot >>> 6), ~bit);
+            if ((old & bit) == 0) return false;
+            WORDS.getAndBitwiseAnd(slotPlayers, slot * playerWords + (player >>> 6), ~(1L << player));
+        }
+        return true;
+    }
+
+    /**
+     * @return - true iff the player has a token on the slot.
+     */
+    boolean has(int player, int slot) {
+        return ((long) WORDS.getVolatile(playerSlots, player * slotWords + (slot >>> 6)) & (1L << slot)) != 0;
+    }
+
+    /**
+     * @return - the number of tokens the player has on the table.
+     */
+    int count(int player) {
+        int count = 0;
+        for (int word = player * slotWords; word < (player + 1) * slotWords; ++word)
+            count += Long.bitCount((long) WORDS.getVolatile(playerSlots, word));
+        return count;
+    }
+
+    /**
+     * @return - the slots of the player's tokens, in ascending order.
+     */
+    int[] slotsOf(int player) {
+        int[] slotsOf = new int[count(player)];
+        int found = 0;
+        for (int word = 0; word < slotWords && found < slotsOf.length; ++word) {
+            long bits = (long) WORDS.getVolatile(playerSlots, player * slotWords + word);
+            for (; bits != 0 && found < slotsOf.length; bits &= bits - 1)
+                slotsOf[found++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        return found == slotsOf.length ? slotsOf : Arrays.copyOf(slotsOf, found);
+    }
+
+    /**
+     * Removes the tokens of all the players from a slot and starts a new epoch of the slot, so placements checked
+     * against the previous card fail.
+     */
+    void clearSlot(int slot) {
+        long slotBit = ~(1L << slot);
+        synchronized (locks[slot]) {
+            EPOCHS.setVolatile(epochs, slot, epochs[slot] + 1);
+            for (int word = 0; word < playerWords; ++word) {
+                long players = (long) WORDS.getAndSet(slotPlayers, slot * playerWords + word, 0L);
+                for (; players != 0; players &= players - 1) {
+                    int player = (word << 6) + Long.numberOfTrailingZeros(players);
+                    WORDS.getAndBitwiseAnd(playerSlots, player * slotWords + (slot >>> 6), slotBit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all the tokens from the table.
+     */
+    void clear() {
+        for (int slot = 0; slot < slots; ++slot)
+            clearSlot(slot);
+    }
+}